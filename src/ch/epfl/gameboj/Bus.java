@@ -1,63 +1,194 @@
 package ch.epfl.gameboj;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.IntConsumer;
 
 import ch.epfl.gameboj.component.Component;
 import ch.epfl.gameboj.Preconditions;
 
 public final class Bus {
 
-	private final ArrayList<Component> tab = new ArrayList<Component>();
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int NUMBER_OF_PAGES = 1 << (Short.SIZE - PAGE_BITS);
+	private static final int ADDRESS_SPACE_SIZE = 1 << Short.SIZE;
+	private static final int NO_COMPONENT_VALUE = 0xFF;
 
+	// composant occupant chaque adresse, par page de 256 octets (octet de poids
+	// fort de l'adresse) : NO_COMPONENT si aucun composant ne l'occupe, Owners si
+	// plusieurs l'occupent. Les pages occupées entièrement par un même composant
+	// partagent le tableau de celui-ci (fullPages).
+	private final Component[][] pages = new Component[NUMBER_OF_PAGES][];
+	private final Map<Component, Component[]> fullPages = new IdentityHashMap<>();
+	// appelé avec l'adresse de chaque écriture, une fois celle-ci effectuée
+	private IntConsumer writeObserver = address -> {
+	};
 
 	/**
-	 * attache le composant au bus
-	 * 
+	 * Composant occupant les adresses qu'aucun composant attaché n'occupe
+	 */
+	private static final Component NO_COMPONENT = new Component() {
+		@Override
+		public int read(int address) {
+			return NO_DATA;
+		}
+
+		@Override
+		public void write(int address, int data) {
+		}
+	};
+
+	/**
+	 * Composants occupant une même adresse, dans l'ordre dans lequel ils ont été
+	 * attachés : une lecture retourne la première valeur fournie par l'un d'eux,
+	 * une écriture leur est transmise à tous
+	 */
+	private static final class Owners implements Component {
+		private final Component[] owners;
+
+		private Owners(Component[] owners) {
+			this.owners = owners;
+		}
+
+		@Override
+		public int read(int address) {
+			for (Component owner : owners) {
+				int value = owner.read(address);
+				if (value != NO_DATA)
+					return value;
+			}
+			return NO_DATA;
+		}
+
+		@Override
+		public void write(int address, int data) {
+			for (Component owner : owners)
+				owner.write(address, data);
+		}
+	}
+
+	/**
+	 * construit un bus auquel aucun composant n'est attaché
+	 */
+	public Bus() {
+		Arrays.fill(pages, fullPage(NO_COMPONENT));
+	}
+
+	/**
+	 * attache le composant au bus, en l'inscrivant comme occupant de chacune des
+	 * adresses de ses plages d'adresses
+	 *
 	 * @param component
 	 *            : composant à attacher, non null attache le composant donné au bus
+	 * @throws IllegalArgumentException
+	 *             si l'une des plages d'adresses du composant est invalide
 	 */
 	public void attach(Component component) {
 		component = Objects.requireNonNull(component);
-		tab.add(component);
+		int[][] ranges = component.addressRanges();
+		for (int[] range : ranges) {
+			Preconditions.checkArgument(range.length == 2);
+			Preconditions.checkArgument(0 <= range[0] && range[0] < range[1] && range[1] <= ADDRESS_SPACE_SIZE);
+		}
+
+		for (int[] range : ranges) {
+			for (int page = range[0] >>> PAGE_BITS; page <= (range[1] - 1) >>> PAGE_BITS; ++page) {
+				Component[] owners = pages[page].clone();
+				int start = Math.max(range[0], page << PAGE_BITS) & (PAGE_SIZE - 1);
+				int end = Math.min(range[1], (page + 1) << PAGE_BITS) - (page << PAGE_BITS);
+				for (int i = start; i < end; ++i)
+					owners[i] = addOwner(owners[i], component);
+
+				boolean full = true;
+				for (int i = 1; i < PAGE_SIZE && full; ++i)
+					full = owners[i] == owners[0];
+				pages[page] = full ? fullPage(owners[0]) : owners;
+			}
+		}
+	}
+
+	/**
+	 * @param owner
+	 *            : composant occupant déjà une adresse
+	 * @param component
+	 *            : composant occupant aussi cette adresse
+	 * @return le composant occupant désormais l'adresse
+	 */
+	private static Component addOwner(Component owner, Component component) {
+		if (owner == NO_COMPONENT)
+			return component;
+		Component[] previous = (owner instanceof Owners) ? ((Owners) owner).owners : new Component[] { owner };
+		for (Component c : previous) {
+			if (c == component)
+				return owner;
+		}
+		Component[] owners = Arrays.copyOf(previous, previous.length + 1);
+		owners[previous.length] = component;
+		return new Owners(owners);
+	}
+
+	/**
+	 * @param owner
+	 *            : composant occupant une page entière
+	 * @return le tableau, partagé par toutes ces pages, dont chaque élément est le
+	 *         composant donné
+	 */
+	private Component[] fullPage(Component owner) {
+		return fullPages.computeIfAbsent(owner, c -> {
+			Component[] page = new Component[PAGE_SIZE];
+			Arrays.fill(page, c);
+			return page;
+		});
 	}
 
 	/**
-	 * lit l'octed se trouvant à l'addresse donnée
-	 * 
+	 * lit l'octed se trouvant à l'addresse donnée, auprès du seul composant qui
+	 * l'occupe
+	 *
 	 * @param address
 	 *            : adresse de l'octect que l'on désire lire, doit être une valeur
 	 *            de 16 bits
-	 * @return l'octet se trouvant à l'adresse donnée
+	 * @return l'octet se trouvant à l'adresse donnée, ou 0xFF si aucun composant
+	 *         ne possède de valeur à cette adresse
 	 */
 
 	public int read(int address) {
 		address = Preconditions.checkBits16(address);
-		for (int i = 0; i < tab.size(); ++i) {
-			if (tab.get(i).read(address) != Component.NO_DATA) {
-				return tab.get(i).read(address);
-			}
-		}
-		return 255;
-
+		int value = pages[address >>> PAGE_BITS][address & (PAGE_SIZE - 1)].read(address);
+		return (value == Component.NO_DATA) ? NO_COMPONENT_VALUE : value;
 	}
 
 	/**
 	 * écrit à l'addresse donnée la valeur donnée
-	 * 
+	 *
 	 * @param address
 	 *            : addresse où affecter la valeur dans la mémoire, doit être une
 	 *            valeur de 16 bits
 	 * @param data:
 	 *            valeur à affecter, doit être de 8 bits affecte la valeur donnée à
-	 *            l'espace d'adresse address dans la mémoire
+	 *            l'espace d'adresse address dans la mémoire, uniquement transmise
+	 *            au composant occupant l'adresse
 	 */
 
 	public void write(int address, int data) {
 		address = Preconditions.checkBits16(address);
 		data = Preconditions.checkBits8(data);
-		for (int i = 0; i < tab.size(); ++i) {
-			tab.get(i).write(address, data);
-		}
+		pages[address >>> PAGE_BITS][address & (PAGE_SIZE - 1)].write(address, data);
+		writeObserver.accept(address);
+	}
+
+	/**
+	 * définit l'observateur appelé après chaque écriture sur le bus, quel qu'en
+	 * soit l'auteur, avec l'adresse de l'écriture ; p.ex. le processeur, dont les
+	 * instructions décodées dépendent du contenu de la mémoire
+	 *
+	 * @param observer
+	 *            : observateur des écritures, non null, remplaçant le précédent
+	 */
+	public void setWriteObserver(IntConsumer observer) {
+		writeObserver = Objects.requireNonNull(observer);
 	}
-}
\ No newline at end of file
+}
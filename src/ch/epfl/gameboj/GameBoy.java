@@ -1,8 +1,14 @@
 package ch.epfl.gameboj;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Objects;
+import java.util.function.Consumer;
 
+import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.Timer;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 import ch.epfl.gameboj.component.cpu.Cpu;
@@ -12,7 +18,7 @@ import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.RamController;
 import ch.epfl.gameboj.AddressMap;
 
-public class GameBoy {
+public class GameBoy implements AutoCloseable {
 	
 	private final Bus bus;
 	private final Ram workRam;
@@ -25,8 +31,21 @@ public class GameBoy {
 	private final Timer timer;
 	private final LcdController lcdController;
 	private final Joypad joypad;
+	private final Clocked[] clockedComponents;
+	private final Clocked[] peripheralComponents;
+	private final Stateful[] statefulComponents;
+	private final int[] stateTags;
+	private Consumer<GameBoy> frameListener;
+	private long lastFrameCount;
 	public static final long CYCLES_PER_SECOND = (1 << 20);
 	public static final double CYCLES_PER_NANOSECOND = CYCLES_PER_SECOND/Math.pow(10, 9);
+	private static final int STATE_MAGIC = 0x47424A53; // "GBJS"
+	private static final int STATE_VERSION = 3;
+	private static final int STATE_HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+	private static final int STATE_SECTION_HEADER_SIZE = 2 * Integer.BYTES;
+	// borne supérieure de la taille d'un état, mémoire vive de cartouche de 32 Kio
+	// comprise
+	private static final int MAX_STATE_SIZE = 1 << 17;
 
 	/**
 	 * construit leGameBoy
@@ -43,10 +62,21 @@ public class GameBoy {
 		timer = new Timer(cpu);
 		lcdController = new LcdController(cpu);
 		joypad = new Joypad(cpu);
+		clockedComponents = new Clocked[] { timer, lcdController, cpu };
+		peripheralComponents = new Clocked[] { timer, lcdController };
 
 		workRamController = new RamController(workRam, AddressMap.WORK_RAM_START, AddressMap.WORK_RAM_END);
 		echoRamController = new RamController(workRam, AddressMap.ECHO_RAM_START, AddressMap.ECHO_RAM_END);
 		bootRomController = new BootRomController(cartridge);
+		statefulComponents = new Stateful[] { cpu, timer, lcdController, joypad, workRam, bootRomController,
+				cartridge };
+		stateTags = new int[] { tag("CPU "), tag("TIMR"), tag("LCDC"), tag("JOYP"), tag("WRAM"), tag("BOOT"),
+				tag("CART") };
+
+		// les changements de banc invalident les instructions décodées par le
+		// processeur
+		cartridge.setRomSwitchListener(cpu);
+		bootRomController.setRomSwitchListener(cpu);
 
 		cpu.attachTo(bus);
 		timer.attachTo(bus);
@@ -96,7 +126,10 @@ public class GameBoy {
 	}
 
 	/**
-	 * simule le fonctionnement du GameBoy jusqu'au cycle donné moins 1,
+	 * simule le fonctionnement du GameBoy jusqu'au cycle donné moins 1, en sautant
+	 * directement d'un cycle durant lequel l'un des composants a du travail au
+	 * suivant ; entre deux tels cycles, le processeur exécute d'avance les
+	 * instructions qui n'accèdent qu'à ses registres
 	 * 
 	 * @param cycle
 	 *            : nombre de cycles à effectuer, doit être inférieur ou égal au
@@ -106,12 +139,183 @@ public class GameBoy {
 	public void runUntil(long cycle) {
 		Preconditions.checkArgument(cycle >= simulatedCycles);
 
-		for (long i = simulatedCycles; i < cycle; ++i) {
-			timer.cycle(i);
-			lcdController.cycle(i);
-			cpu.cycle(i);
-			++simulatedCycles;
+		while (simulatedCycles < cycle) {
+			simulatedCycles = Math.min(cycle, nextEventCycle(clockedComponents));
+			if (simulatedCycles < cycle) {
+				for (Clocked c : clockedComponents)
+					c.cycle(simulatedCycles);
+				++simulatedCycles;
+				cpu.runAhead(Math.min(cycle, nextEventCycle(peripheralComponents)));
+				if (frameListener != null && lcdController.frameCount() != lastFrameCount) {
+					lastFrameCount = lcdController.frameCount();
+					frameListener.accept(this);
+				}
+			}
+		}
+		// le minuteur n'est mis à jour que lors des événements : on le rattrape pour
+		// que son état corresponde au dernier cycle simulé
+		timer.cycle(simulatedCycles - 1);
+	}
+
+	/**
+	 * Définit l'auditeur appelé par runUntil à chaque fois qu'une image est
+	 * terminée (au début du VBLANK), entre deux cycles simulés ; l'auditeur peut
+	 * alors consulter ou sauvegarder l'état du GameBoy, mais pas le simuler
+	 * 
+	 * @param listener
+	 *            : auditeur à appeler, ou null pour ne plus en appeler aucun
+	 */
+	public void setFrameListener(Consumer<GameBoy> listener) {
+		frameListener = listener;
+		lastFrameCount = lcdController.frameCount();
+	}
+
+	/**
+	 * @param components
+	 *            : composants cadencés à consulter
+	 * @return le prochain cycle, à partir du cycle courant, durant lequel au moins
+	 *         l'un des composants donnés a du travail à effectuer
+	 */
+	private long nextEventCycle(Clocked[] components) {
+		long next = Long.MAX_VALUE;
+		for (Clocked c : components)
+			next = Math.min(next, c.nextEventCycle(simulatedCycles));
+		return Math.max(simulatedCycles, next);
+	}
+
+	/**
+	 * Construit un nouveau GameBoy dans le même état que celui-ci, p.ex. pour
+	 * explorer plusieurs suites possibles d'une partie. La mémoire morte est
+	 * partagée, et les pages des différentes mémoires vives ne sont dupliquées que
+	 * lors de leur première modification, par l'un ou l'autre des GameBoy. Les deux
+	 * GameBoy peuvent ensuite être simulés indépendamment, par des fils
+	 * différents ; la copie ne sauvegarde pas la mémoire de la cartouche dans un
+	 * fichier.
+	 * 
+	 * @return la copie du GameBoy
+	 */
+	public GameBoy fork() {
+		GameBoy fork = new GameBoy(cartridge.fork());
+		fork.cpu.copyFrom(cpu);
+		fork.timer.copyFrom(timer);
+		fork.lcdController.copyFrom(lcdController);
+		fork.joypad.copyFrom(joypad);
+		fork.workRam.copyFrom(workRam);
+		fork.bootRomController.copyFrom(bootRomController);
+		fork.simulatedCycles = simulatedCycles;
+		return fork;
+	}
+
+	/**
+	 * Écrit l'état complet du GameBoy (à l'exception de la mémoire morte de la
+	 * cartouche) dans le tampon donné, à partir de sa position. L'état est formé
+	 * d'un en-tête (signature, version, identité de la cartouche, nombre de
+	 * cycles simulés, nombre de sections) suivi d'une section par composant,
+	 * chacune précédée de son étiquette et de sa taille en octets.
+	 * 
+	 * @param buffer
+	 *            : tampon dans lequel écrire l'état, non null
+	 * @throws java.nio.BufferOverflowException
+	 *             si le tampon n'a pas la place nécessaire
+	 */
+	public void saveState(ByteBuffer buffer) {
+		ByteBuffer state = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		state.putInt(STATE_MAGIC).putInt(STATE_VERSION).putInt(cartridge.identity()).putLong(simulatedCycles)
+				.putInt(statefulComponents.length);
+		for (int i = 0; i < statefulComponents.length; ++i) {
+			int sectionStart = state.position();
+			state.putInt(stateTags[i]).putInt(0);
+			statefulComponents[i].saveState(state);
+			state.putInt(sectionStart + Integer.BYTES, state.position() - sectionStart - STATE_SECTION_HEADER_SIZE);
 		}
+		buffer.position(state.position());
+	}
+
+	/**
+	 * @return un nouveau tampon, positionné à son début, contenant l'état complet
+	 *         du GameBoy
+	 */
+	public ByteBuffer saveState() {
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_STATE_SIZE);
+		saveState(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Remplace l'état du GameBoy par celui lu dans le tampon donné, à partir de sa
+	 * position, tel qu'écrit par saveState pour la même cartouche. Les sections
+	 * inconnues sont ignorées. La section de chaque composant est entièrement
+	 * vérifiée avant d'être chargée : si l'état n'est pas valide, celui du GameBoy
+	 * reste inchangé.
+	 * 
+	 * @param buffer
+	 *            : tampon contenant l'état, non null
+	 * @throws IllegalArgumentException
+	 *             si le tampon ne contient pas un état valide, d'une autre version
+	 *             ou d'une autre cartouche, ou s'il lui manque la section de l'un
+	 *             des composants
+	 */
+	public void loadState(ByteBuffer buffer) {
+		ByteBuffer state = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		Preconditions.checkArgument(state.remaining() >= STATE_HEADER_SIZE);
+		Preconditions.checkArgument(state.getInt() == STATE_MAGIC && state.getInt() == STATE_VERSION);
+		Preconditions.checkArgument(state.getInt() == cartridge.identity());
+		long cycles = state.getLong();
+		int sections = state.getInt();
+		Preconditions.checkArgument(cycles >= 0 && sections >= 0);
+
+		// chaque composant doit avoir exactement une section
+		ByteBuffer[] componentStates = new ByteBuffer[statefulComponents.length];
+		for (int s = 0; s < sections; ++s) {
+			Preconditions.checkArgument(state.remaining() >= STATE_SECTION_HEADER_SIZE);
+			int tag = state.getInt();
+			int length = state.getInt();
+			Preconditions.checkArgument(length >= 0 && length <= state.remaining());
+			for (int i = 0; i < statefulComponents.length; ++i) {
+				if (stateTags[i] == tag) {
+					Preconditions.checkArgument(componentStates[i] == null);
+					componentStates[i] = state.slice();
+					componentStates[i].limit(length);
+				}
+			}
+			state.position(state.position() + length);
+		}
+		for (ByteBuffer componentState : componentStates)
+			Preconditions.checkArgument(componentState != null);
+
+		for (int i = 0; i < statefulComponents.length; ++i) {
+			ByteBuffer section = componentStates[i].duplicate();
+			try {
+				statefulComponents[i].checkState(section);
+			} catch (BufferUnderflowException e) {
+				throw new IllegalArgumentException(e);
+			}
+			Preconditions.checkArgument(!section.hasRemaining());
+		}
+
+		for (int i = 0; i < statefulComponents.length; ++i)
+			statefulComponents[i].loadState(componentStates[i]);
+		simulatedCycles = cycles;
+		buffer.position(state.position());
+	}
+
+	/**
+	 * Ferme la cartouche, dont la mémoire alimentée par pile est alors
+	 * sauvegardée une dernière fois ; à appeler une fois la simulation terminée
+	 */
+	@Override
+	public void close() {
+		cartridge.close();
+	}
+
+	/**
+	 * @param name
+	 *            : nom de 4 caractères ASCII
+	 * @return l'étiquette de section correspondant au nom donné
+	 */
+	private static int tag(String name) {
+		return (name.charAt(0) << 24) | (name.charAt(1) << 16) | (name.charAt(2) << 8) | name.charAt(3);
 	}
 
 	/**
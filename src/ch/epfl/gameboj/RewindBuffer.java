@@ -0,0 +1,307 @@
+package ch.epfl.gameboj;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mémoire des dernières images simulées d'un GameBoy, permettant de revenir en
+ * arrière. L'état du GameBoy est enregistré à la fin de chaque image, sous la
+ * forme de la différence (ou exclusif) avec l'état de l'image précédente, dont
+ * les suites d'octets nuls sont compressées ; un état complet (image clef) est
+ * enregistré à intervalles réguliers. Les enregistrements sont stockés dans un
+ * tampon circulaire de taille fixe, hors du tas, les plus anciens étant écrasés
+ * par les plus récents.
+ *
+ * Usage : gameBoy.setFrameListener(rewindBuffer::record)
+ */
+public final class RewindBuffer {
+
+	/**
+	 * Nombre d'images séparant deux images clefs, soit environ 3 secondes
+	 */
+	public static final int KEYFRAME_INTERVAL = 180;
+	/**
+	 * Capacité minimale du tampon, en octets
+	 */
+	public static final int MIN_CAPACITY = 1 << 20;
+	private static final int MAX_STATE_SIZE = 1 << 17;
+	// taille maximale d'un enregistrement : chaque octet non nul coûte au plus 3
+	// octets une fois compressé
+	private static final int MAX_ENTRY_SIZE = 3 * MAX_STATE_SIZE;
+
+	private final ByteBuffer ring;
+	// position, taille et nature des enregistrements, du plus ancien (index first)
+	// au plus récent, dans des tableaux circulaires
+	private final int[] offsets;
+	private final int[] lengths;
+	private final boolean[] keyframes;
+	private int first;
+	private int count;
+	private int sinceKeyframe;
+
+	// état correspondant à l'enregistrement le plus récent
+	private final byte[] current;
+	private int currentLength;
+	private final ByteBuffer snapshot;
+	private final byte[] encoded;
+
+	/**
+	 * Construit la mémoire
+	 *
+	 * @param maxFrames
+	 *            : nombre maximal d'images mémorisées, strictement positif
+	 * @param capacity
+	 *            : taille du tampon circulaire, en octets, au moins égale à
+	 *            MIN_CAPACITY
+	 * @throws IllegalArgumentException
+	 *             si le nombre d'images ou la capacité n'est pas valide
+	 */
+	public RewindBuffer(int maxFrames, int capacity) {
+		Preconditions.checkArgument(maxFrames > 0 && capacity >= MIN_CAPACITY);
+		ring = ByteBuffer.allocateDirect(capacity);
+		offsets = new int[maxFrames];
+		lengths = new int[maxFrames];
+		keyframes = new boolean[maxFrames];
+		current = new byte[MAX_STATE_SIZE];
+		snapshot = ByteBuffer.wrap(new byte[MAX_STATE_SIZE]);
+		encoded = new byte[MAX_ENTRY_SIZE];
+	}
+
+	/**
+	 * @return le nombre d'images mémorisées, la plus récente comprise
+	 */
+	public int frames() {
+		return count;
+	}
+
+	/**
+	 * Mémorise l'état actuel du GameBoy donné, normalement appelée à la fin de
+	 * chaque image
+	 *
+	 * @param gameBoy
+	 *            : GameBoy dont l'état est mémorisé, non null
+	 */
+	public void record(GameBoy gameBoy) {
+		snapshot.clear();
+		gameBoy.saveState(snapshot);
+		byte[] state = snapshot.array();
+		int length = snapshot.position();
+
+		boolean keyframe = count == 0 || sinceKeyframe + 1 >= KEYFRAME_INTERVAL || length != currentLength;
+		int encodedLength = encode(state, keyframe ? null : current, length);
+		if (!makeRoom(encodedLength)) {
+			// l'image clef sur laquelle reposait la différence vient d'être écrasée
+			keyframe = true;
+			encodedLength = encode(state, null, length);
+			makeRoom(encodedLength);
+		}
+		append(encodedLength, keyframe);
+
+		System.arraycopy(state, 0, current, 0, length);
+		currentLength = length;
+	}
+
+	/**
+	 * Ramène le GameBoy donné à l'état mémorisé le nombre d'images donné avant le
+	 * plus récent, et oublie les images plus récentes que celui-ci
+	 *
+	 * @param gameBoy
+	 *            : GameBoy à ramener en arrière, non null, celui dont les états
+	 *            ont été mémorisés
+	 * @param frames
+	 *            : nombre d'images à remonter, positif et strictement inférieur au
+	 *            nombre d'images mémorisées
+	 * @throws IllegalArgumentException
+	 *             si le nombre d'images n'est pas valide
+	 */
+	public void rewind(GameBoy gameBoy, int frames) {
+		Preconditions.checkArgument(frames >= 0 && frames < count);
+		int target = count - 1 - frames;
+
+		int lastKeyframe = target;
+		while (!keyframes[entry(lastKeyframe)])
+			--lastKeyframe;
+
+		boolean keyframeSkipped = false;
+		for (int i = target + 1; i < count; ++i)
+			keyframeSkipped |= keyframes[entry(i)];
+
+		if (keyframeSkipped) {
+			// repart de l'image clef précédant la cible et applique les différences
+			Arrays.fill(current, (byte) 0);
+			for (int i = lastKeyframe; i <= target; ++i)
+				currentLength = decode(entry(i), current);
+		} else {
+			// la différence étant symétrique, remonte directement depuis l'état le
+			// plus récent
+			for (int i = count - 1; i > target; --i)
+				decode(entry(i), current);
+		}
+
+		count = target + 1;
+		sinceKeyframe = target - lastKeyframe;
+		gameBoy.loadState(ByteBuffer.wrap(current, 0, currentLength));
+	}
+
+	/**
+	 * @param index
+	 *            : index d'un enregistrement, 0 désignant le plus ancien
+	 * @return l'index de l'enregistrement dans les tableaux circulaires
+	 */
+	private int entry(int index) {
+		return (first + index) % offsets.length;
+	}
+
+	/**
+	 * Oublie les plus anciens enregistrements occupant la place nécessaire au
+	 * prochain enregistrement, ou en excès, de sorte que le plus ancien restant
+	 * soit une image clef
+	 *
+	 * @param length
+	 *            : taille du prochain enregistrement
+	 * @return faux ssi tous les enregistrements ont été oubliés
+	 */
+	private boolean makeRoom(int length) {
+		int start = nextOffset(length);
+		// lorsque l'écriture reprend au début du tampon, les enregistrements situés
+		// après le plus récent sont les plus anciens et sont tous oubliés
+		int tail = (count > 0 && start == 0) ? offsets[entry(count - 1)] + lengths[entry(count - 1)]
+				: ring.capacity();
+		boolean evicted = false;
+		while (count > 0 && (count == offsets.length || overlaps(entry(0), start, length)
+				|| offsets[entry(0)] >= tail || (evicted && !keyframes[entry(0)]))) {
+			first = entry(1);
+			--count;
+			evicted = true;
+		}
+		return !(evicted && count == 0);
+	}
+
+	/**
+	 * @param length
+	 *            : taille du prochain enregistrement
+	 * @return la position du prochain enregistrement dans le tampon, les
+	 *         enregistrements n'étant jamais coupés par la fin du tampon
+	 */
+	private int nextOffset(int length) {
+		if (count == 0)
+			return 0;
+		int last = entry(count - 1);
+		int end = offsets[last] + lengths[last];
+		return (end + length <= ring.capacity()) ? end : 0;
+	}
+
+	/**
+	 * @return vrai ssi l'enregistrement donné chevauche la zone donnée du tampon
+	 */
+	private boolean overlaps(int entry, int start, int length) {
+		return offsets[entry] < start + length && start < offsets[entry] + lengths[entry];
+	}
+
+	/**
+	 * Ajoute l'enregistrement compressé dans le tableau de travail après le plus
+	 * récent, la place nécessaire ayant été libérée
+	 *
+	 * @param length
+	 *            : taille de l'enregistrement
+	 * @param keyframe
+	 *            : vrai ssi l'enregistrement est une image clef
+	 */
+	private void append(int length, boolean keyframe) {
+		int offset = nextOffset(length);
+		int index = entry(count);
+		ByteBuffer destination = ring.duplicate();
+		destination.position(offset);
+		destination.put(encoded, 0, length);
+
+		offsets[index] = offset;
+		lengths[index] = length;
+		keyframes[index] = keyframe;
+		++count;
+		sinceKeyframe = keyframe ? 0 : sinceKeyframe + 1;
+	}
+
+	/**
+	 * Compresse dans le tableau de travail la différence entre les deux états
+	 * donnés : une suite de paires (nombre d'octets identiques, nombre d'octets
+	 * différents), chacune suivie des octets différents
+	 *
+	 * @param state
+	 *            : nouvel état
+	 * @param previous
+	 *            : état précédent, ou null pour enregistrer l'état complet
+	 * @param length
+	 *            : taille des états
+	 * @return la taille de l'enregistrement compressé
+	 */
+	private int encode(byte[] state, byte[] previous, int length) {
+		int out = 0;
+		int i = 0;
+		while (i < length) {
+			int start = i;
+			while (i < length && state[i] == (previous == null ? 0 : previous[i]))
+				++i;
+			int literals = i;
+			while (literals < length && state[literals] != (previous == null ? 0 : previous[literals]))
+				++literals;
+
+			out = putVarint(i - start, out);
+			out = putVarint(literals - i, out);
+			for (; i < literals; ++i)
+				encoded[out++] = (byte) (state[i] ^ (previous == null ? 0 : previous[i]));
+		}
+		return out;
+	}
+
+	/**
+	 * Applique à l'état donné, par ou exclusif, l'enregistrement donné
+	 *
+	 * @param entry
+	 *            : index de l'enregistrement dans les tableaux circulaires
+	 * @param state
+	 *            : état à modifier
+	 * @return la taille de l'état
+	 */
+	private int decode(int entry, byte[] state) {
+		int position = offsets[entry];
+		int end = position + lengths[entry];
+		int i = 0;
+		while (position < end) {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = ring.get(position++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			i += value;
+
+			int literals = 0;
+			shift = 0;
+			do {
+				b = ring.get(position++);
+				literals |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			for (int j = 0; j < literals; ++j)
+				state[i++] ^= ring.get(position++);
+		}
+		return i;
+	}
+
+	/**
+	 * Écrit la valeur donnée dans le tableau de travail, par groupes de 7 bits,
+	 * le bit de poids fort de chaque octet indiquant si d'autres suivent
+	 *
+	 * @return la position suivant la valeur écrite
+	 */
+	private int putVarint(int value, int out) {
+		while ((value & ~0x7F) != 0) {
+			encoded[out++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		encoded[out++] = (byte) value;
+		return out;
+	}
+}
@@ -0,0 +1,212 @@
+package ch.epfl.gameboj.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdController;
+
+/**
+ * Point d'entrée sans interface graphique, simulant plusieurs GameBoy
+ * indépendants en parallèle, aussi vite que possible (sans lien avec le temps
+ * réel), p.ex. pour des tests de non-régression. Les entrées proviennent
+ * d'un film (fichier .gbm) ou d'un script d'entrée textuel.
+ *
+ * Usage : BatchRunner rom.gb images [instances [script|film.gbm]]
+ */
+public final class BatchRunner {
+
+	private final File romFile;
+	private final long frames;
+	private final Movie movie;
+	private static final String MOVIE_EXTENSION = ".gbm";
+	private static final int RENDERED_FRAMES = 2;
+
+	/**
+	 * Résultat de la simulation d'une instance
+	 */
+	public static final class Result {
+		private final int instance;
+		private final long frames;
+		private final long nanoseconds;
+		private final int imageHash;
+
+		private Result(int instance, long frames, long nanoseconds, int imageHash) {
+			this.instance = instance;
+			this.frames = frames;
+			this.nanoseconds = nanoseconds;
+			this.imageHash = imageHash;
+		}
+
+		/**
+		 * @return l'index de l'instance
+		 */
+		public int instance() {
+			return instance;
+		}
+
+		/**
+		 * @return le nombre d'images par seconde simulées par l'instance
+		 */
+		public double framesPerSecond() {
+			return frames * 1e9 / Math.max(1, nanoseconds);
+		}
+
+		/**
+		 * @return la valeur de hachage de la dernière image produite par l'instance
+		 */
+		public int imageHash() {
+			return imageHash;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("instance %d: %d frames, %.1f frames/s, image hash %08x", instance, frames,
+					framesPerSecond(), imageHash);
+		}
+	}
+
+	/**
+	 * Construit le simulateur en lot
+	 *
+	 * @param romFile
+	 *            : fichier de la cartouche à simuler, non null
+	 * @param frames
+	 *            : nombre d'images à simuler par instance, non négatif
+	 * @param script
+	 *            : script d'entrée appliqué à chaque instance, non null
+	 * @throws IllegalArgumentException
+	 *             si le nombre d'images est négatif
+	 */
+	public BatchRunner(File romFile, long frames, InputScript script) {
+		this(romFile, frames, Movie.of(script));
+	}
+
+	/**
+	 * Construit le simulateur en lot
+	 *
+	 * @param romFile
+	 *            : fichier de la cartouche à simuler, non null
+	 * @param frames
+	 *            : nombre d'images à simuler par instance, non négatif
+	 * @param movie
+	 *            : film rejoué par chaque instance, non null
+	 * @throws IllegalArgumentException
+	 *             si le nombre d'images est négatif
+	 */
+	public BatchRunner(File romFile, long frames, Movie movie) {
+		Preconditions.checkArgument(frames >= 0);
+		this.romFile = Objects.requireNonNull(romFile);
+		this.frames = frames;
+		this.movie = Objects.requireNonNull(movie);
+	}
+
+	/**
+	 * Simule une instance jusqu'à la fin du nombre d'images donné, en rejouant
+	 * le film
+	 *
+	 * @param instance
+	 *            : index de l'instance
+	 * @return le résultat de la simulation
+	 * @throws IOException
+	 *             en cas d'erreur de lecture de la cartouche
+	 */
+	public Result run(int instance) throws IOException {
+		// les instances ne partagent pas de fichier de sauvegarde
+		try (GameBoy gameBoy = new GameBoy(Cartridge.ofFile(romFile, false))) {
+			Movie.Player player = new Movie.Player(movie, gameBoy);
+
+			// seule la dernière image est utilisée : les précédentes ne sont pas
+			// dessinées, à l'exception des deux dernières, dont l'une au moins se
+			// termine avant la fin de la simulation
+			long start = System.nanoTime();
+			gameBoy.lcdController().setRenderingEnabled(false);
+			player.runUntil(Math.max(0, frames - RENDERED_FRAMES) * LcdController.CYCLES_PER_IMAGE);
+			gameBoy.lcdController().setRenderingEnabled(true);
+			player.runUntil(frames * LcdController.CYCLES_PER_IMAGE);
+			long elapsed = System.nanoTime() - start;
+
+			return new Result(instance, frames, elapsed, gameBoy.lcdController().currentImage().hashCode());
+		}
+	}
+
+	/**
+	 * Simule le nombre donné d'instances indépendantes en parallèle
+	 *
+	 * @param instances
+	 *            : nombre d'instances, strictement positif
+	 * @param pool
+	 *            : réserve de fils dans laquelle exécuter les instances, non nulle
+	 * @return les résultats des instances, dans l'ordre de leur index
+	 * @throws IOException
+	 *             en cas d'erreur de lecture de la cartouche
+	 * @throws InterruptedException
+	 *             si le fil appelant est interrompu pendant l'attente
+	 */
+	public List<Result> runAll(int instances, ForkJoinPool pool) throws IOException, InterruptedException {
+		Preconditions.checkArgument(instances > 0);
+		List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+		for (int i = 0; i < instances; ++i) {
+			int instance = i;
+			tasks.add(pool.submit(() -> run(instance)));
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (ForkJoinTask<Result> task : tasks) {
+			try {
+				results.add(task.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Lance la simulation en lot et affiche le résultat de chaque instance
+	 *
+	 * @param args
+	 *            : fichier de la cartouche, nombre d'images, et facultativement
+	 *            nombre d'instances (1 par défaut) et fichier du script d'entrée
+	 *            ou du film (.gbm)
+	 * @throws Exception
+	 *             en cas d'erreur de lecture ou de simulation
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2 || args.length > 4) {
+			System.err.println("usage: BatchRunner rom.gb frames [instances [script|movie.gbm]]");
+			System.exit(1);
+		}
+		File romFile = new File(args[0]);
+		long frames = Long.parseLong(args[1]);
+		int instances = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+		Movie movie;
+		if (args.length <= 3)
+			movie = Movie.of(InputScript.EMPTY);
+		else if (args[3].endsWith(MOVIE_EXTENSION))
+			movie = Movie.ofFile(Paths.get(args[3]));
+		else
+			movie = Movie.of(InputScript.ofFile(Paths.get(args[3])));
+
+		BatchRunner runner = new BatchRunner(romFile, frames, movie);
+		long start = System.nanoTime();
+		List<Result> results = runner.runAll(instances, ForkJoinPool.commonPool());
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		for (Result result : results)
+			System.out.println(result);
+		System.out.printf("%d instances, %.2f s, %.1f frames/s in total%n", instances, seconds,
+				instances * frames / seconds);
+	}
+}
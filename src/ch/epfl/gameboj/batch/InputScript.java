@@ -0,0 +1,128 @@
+package ch.epfl.gameboj.batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Joypad;
+
+/**
+ * Script d'entrée immuable, décrivant les touches pressées et relâchées au début
+ * de certaines images. Dans sa forme textuelle, chaque ligne non vide et ne
+ * débutant pas par # a la forme « image touche press|release », p.ex.
+ * « 120 START press ».
+ */
+public final class InputScript {
+
+	/**
+	 * Script ne contenant aucun événement
+	 */
+	public static final InputScript EMPTY = new InputScript(Collections.emptyList());
+
+	private final List<Event> events;
+
+	/**
+	 * Événement du script : pression ou relâchement d'une touche au début d'une
+	 * image
+	 */
+	public static final class Event {
+		private final long frame;
+		private final Joypad.Key key;
+		private final boolean pressed;
+
+		/**
+		 * Construit l'événement
+		 *
+		 * @param frame
+		 *            : index de l'image au début de laquelle l'événement a lieu, non
+		 *            négatif
+		 * @param key
+		 *            : touche concernée, non nulle
+		 * @param pressed
+		 *            : vrai si la touche est pressée, faux si elle est relâchée
+		 * @throws IllegalArgumentException
+		 *             si l'index de l'image est négatif
+		 */
+		public Event(long frame, Joypad.Key key, boolean pressed) {
+			Preconditions.checkArgument(frame >= 0);
+			this.frame = frame;
+			this.key = Objects.requireNonNull(key);
+			this.pressed = pressed;
+		}
+
+		/**
+		 * @return l'index de l'image au début de laquelle l'événement a lieu
+		 */
+		public long frame() {
+			return frame;
+		}
+
+		/**
+		 * @return la touche concernée
+		 */
+		public Joypad.Key key() {
+			return key;
+		}
+
+		/**
+		 * @return vrai si la touche est pressée, faux si elle est relâchée
+		 */
+		public boolean pressed() {
+			return pressed;
+		}
+	}
+
+	/**
+	 * Construit le script contenant les événements donnés
+	 *
+	 * @param events
+	 *            : événements du script, triés par image. Doit être non null
+	 * @throws IllegalArgumentException
+	 *             si les événements ne sont pas triés par image
+	 */
+	public InputScript(List<Event> events) {
+		for (int i = 1; i < events.size(); ++i)
+			Preconditions.checkArgument(events.get(i).frame() >= events.get(i - 1).frame());
+		this.events = Collections.unmodifiableList(new ArrayList<>(events));
+	}
+
+	/**
+	 * Lit le script contenu dans le fichier texte donné
+	 *
+	 * @param file
+	 *            : fichier contenant le script, non null
+	 * @return le script lu
+	 * @throws IOException
+	 *             en cas d'erreur d'entrée-sortie
+	 * @throws IllegalArgumentException
+	 *             si l'une des lignes n'est pas valide ou si les images ne sont pas
+	 *             croissantes
+	 */
+	public static InputScript ofFile(Path file) throws IOException {
+		List<Event> events = new ArrayList<>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			String[] parts = line.split("\\s+");
+			if (parts.length != 3 || !(parts[2].equals("press") || parts[2].equals("release")))
+				throw new IllegalArgumentException("invalid script line: " + line);
+			events.add(new Event(Long.parseLong(parts[0]), Joypad.Key.valueOf(parts[1]), parts[2].equals("press")));
+		}
+		return new InputScript(events);
+	}
+
+	/**
+	 * @return les événements du script, triés par image
+	 */
+	public List<Event> events() {
+		return events;
+	}
+}
@@ -0,0 +1,332 @@
+package ch.epfl.gameboj.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.lcd.LcdController;
+
+/**
+ * Film immuable : suite des touches pressées et relâchées durant une partie,
+ * chaque événement étant daté du cycle exact auquel il a eu lieu depuis
+ * l'allumage du GameBoy. Rejoué sur la même cartouche (sans fichier de
+ * sauvegarde), un film produit exactement les mêmes images.
+ *
+ * Dans sa forme binaire, un film est formé de la signature « GBJM » et d'un
+ * octet de version, suivis pour chaque événement du nombre de cycles le
+ * séparant du précédent (entier de taille variable, par groupes de 7 bits) et
+ * d'un octet contenant l'index de la touche et, dans son bit de poids faible,
+ * vrai ssi elle est pressée.
+ */
+public final class Movie {
+
+	private static final int MAGIC = 0x47424A4D; // "GBJM"
+	private static final int VERSION = 1;
+
+	private final List<Event> events;
+
+	/**
+	 * Événement du film : pression ou relâchement d'une touche à un cycle donné
+	 */
+	public static final class Event {
+		private final long cycle;
+		private final Joypad.Key key;
+		private final boolean pressed;
+
+		/**
+		 * Construit l'événement
+		 *
+		 * @param cycle
+		 *            : cycle auquel l'événement a lieu, non négatif
+		 * @param key
+		 *            : touche concernée, non nulle
+		 * @param pressed
+		 *            : vrai si la touche est pressée, faux si elle est relâchée
+		 * @throws IllegalArgumentException
+		 *             si le cycle est négatif
+		 */
+		public Event(long cycle, Joypad.Key key, boolean pressed) {
+			Preconditions.checkArgument(cycle >= 0);
+			this.cycle = cycle;
+			this.key = Objects.requireNonNull(key);
+			this.pressed = pressed;
+		}
+
+		/**
+		 * @return le cycle auquel l'événement a lieu
+		 */
+		public long cycle() {
+			return cycle;
+		}
+
+		/**
+		 * @return la touche concernée
+		 */
+		public Joypad.Key key() {
+			return key;
+		}
+
+		/**
+		 * @return vrai si la touche est pressée, faux si elle est relâchée
+		 */
+		public boolean pressed() {
+			return pressed;
+		}
+
+		/**
+		 * Applique l'événement au clavier donné
+		 *
+		 * @param joypad
+		 *            : clavier auquel appliquer l'événement
+		 */
+		public void applyTo(Joypad joypad) {
+			if (pressed)
+				joypad.keyPressed(key);
+			else
+				joypad.keyReleased(key);
+		}
+	}
+
+	/**
+	 * Construit le film contenant les événements donnés
+	 *
+	 * @param events
+	 *            : événements du film, triés par cycle. Doit être non null
+	 * @throws IllegalArgumentException
+	 *             si les événements ne sont pas triés par cycle
+	 */
+	public Movie(List<Event> events) {
+		for (int i = 1; i < events.size(); ++i)
+			Preconditions.checkArgument(events.get(i).cycle() >= events.get(i - 1).cycle());
+		this.events = Collections.unmodifiableList(new ArrayList<>(events));
+	}
+
+	/**
+	 * @param script
+	 *            : script d'entrée, non null
+	 * @return le film équivalent au script donné, dont les événements ont lieu au
+	 *         premier cycle de leur image
+	 */
+	public static Movie of(InputScript script) {
+		List<Event> events = new ArrayList<>();
+		for (InputScript.Event e : script.events())
+			events.add(new Event(e.frame() * LcdController.CYCLES_PER_IMAGE, e.key(), e.pressed()));
+		return new Movie(events);
+	}
+
+	/**
+	 * Lit le film contenu dans le fichier binaire donné
+	 *
+	 * @param file
+	 *            : fichier contenant le film, non null
+	 * @return le film lu
+	 * @throws IOException
+	 *             en cas d'erreur d'entrée-sortie
+	 * @throws IllegalArgumentException
+	 *             si le fichier ne contient pas un film valide
+	 */
+	public static Movie ofFile(Path file) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+		Preconditions.checkArgument(in.remaining() >= Integer.BYTES + 1);
+		Preconditions.checkArgument(in.getInt() == MAGIC && in.get() == VERSION);
+
+		Joypad.Key[] keys = Joypad.Key.values();
+		List<Event> events = new ArrayList<>();
+		long cycle = 0;
+		while (in.hasRemaining()) {
+			cycle += readVarint(in);
+			Preconditions.checkArgument(in.hasRemaining());
+			int keyAndState = Byte.toUnsignedInt(in.get());
+			Preconditions.checkArgument((keyAndState >>> 1) < keys.length);
+			events.add(new Event(cycle, keys[keyAndState >>> 1], (keyAndState & 1) != 0));
+		}
+		return new Movie(events);
+	}
+
+	/**
+	 * Écrit le film dans le fichier donné, sous sa forme binaire
+	 *
+	 * @param file
+	 *            : fichier à écrire, non null
+	 * @throws IOException
+	 *             en cas d'erreur d'entrée-sortie
+	 */
+	public void writeTo(Path file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC).array());
+		out.write(VERSION);
+
+		long cycle = 0;
+		for (Event e : events) {
+			writeVarint(out, e.cycle() - cycle);
+			out.write((e.key().ordinal() << 1) | (e.pressed() ? 1 : 0));
+			cycle = e.cycle();
+		}
+		Files.write(file, out.toByteArray());
+	}
+
+	/**
+	 * @return les événements du film, triés par cycle
+	 */
+	public List<Event> events() {
+		return events;
+	}
+
+	/**
+	 * @param in
+	 *            : tampon contenant l'entier
+	 * @return l'entier de taille variable lu
+	 * @throws IllegalArgumentException
+	 *             si l'entier est tronqué ou trop grand
+	 */
+	private static long readVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			Preconditions.checkArgument(in.hasRemaining());
+			int b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Écrit l'entier positif donné par groupes de 7 bits, le bit de poids fort
+	 * de chaque octet indiquant si d'autres suivent
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Enregistreur de film : transmet les touches pressées et relâchées au clavier
+	 * du GameBoy, en les datant de son cycle courant. Le GameBoy doit être simulé
+	 * depuis son allumage, et les touches ne doivent lui parvenir que par
+	 * l'enregistreur.
+	 */
+	public static final class Recorder {
+		private final GameBoy gameBoy;
+		private final List<Event> events;
+
+		/**
+		 * Construit l'enregistreur
+		 *
+		 * @param gameBoy
+		 *            : GameBoy dont les entrées sont enregistrées, non null
+		 */
+		public Recorder(GameBoy gameBoy) {
+			this.gameBoy = Objects.requireNonNull(gameBoy);
+			events = new ArrayList<>();
+		}
+
+		/**
+		 * Presse la touche donnée au cycle courant du GameBoy et l'enregistre
+		 *
+		 * @param key
+		 *            : touche pressée, non nulle
+		 */
+		public void keyPressed(Joypad.Key key) {
+			record(new Event(gameBoy.cycles(), key, true));
+		}
+
+		/**
+		 * Relâche la touche donnée au cycle courant du GameBoy et l'enregistre
+		 *
+		 * @param key
+		 *            : touche relâchée, non nulle
+		 */
+		public void keyReleased(Joypad.Key key) {
+			record(new Event(gameBoy.cycles(), key, false));
+		}
+
+		/**
+		 * Oublie les événements postérieurs au cycle courant du GameBoy ; à
+		 * appeler immédiatement après chaque retour en arrière, faute de quoi le
+		 * film contiendrait des événements n'ayant plus eu lieu
+		 */
+		public void truncate() {
+			while (!events.isEmpty() && events.get(events.size() - 1).cycle() > gameBoy.cycles())
+				events.remove(events.size() - 1);
+		}
+
+		/**
+		 * @return le film des événements enregistrés jusqu'ici
+		 */
+		public Movie build() {
+			return new Movie(events);
+		}
+
+		private void record(Event event) {
+			truncate();
+			events.add(event);
+			event.applyTo(gameBoy.joypad());
+		}
+	}
+
+	/**
+	 * Lecteur de film : simule un GameBoy depuis son allumage, en lui
+	 * transmettant les événements du film au cycle exact auquel ils ont été
+	 * enregistrés
+	 */
+	public static final class Player {
+		private final List<Event> events;
+		private final GameBoy gameBoy;
+		private int nextEvent;
+
+		/**
+		 * Construit le lecteur
+		 *
+		 * @param movie
+		 *            : film à rejouer, non null
+		 * @param gameBoy
+		 *            : GameBoy auquel transmettre les événements, non null
+		 */
+		public Player(Movie movie, GameBoy gameBoy) {
+			this.events = movie.events();
+			this.gameBoy = Objects.requireNonNull(gameBoy);
+			nextEvent = 0;
+		}
+
+		/**
+		 * Simule le GameBoy jusqu'au cycle donné moins 1, comme GameBoy.runUntil, en
+		 * lui transmettant les événements du film ayant lieu jusqu'au cycle donné
+		 * inclus
+		 *
+		 * @param cycle
+		 *            : cycle jusqu'auquel simuler, supérieur ou égal au cycle courant
+		 *            du GameBoy
+		 * @throws IllegalArgumentException
+		 *             si le cycle est inférieur au cycle courant du GameBoy
+		 */
+		public void runUntil(long cycle) {
+			Preconditions.checkArgument(cycle >= gameBoy.cycles());
+			while (nextEvent < events.size() && events.get(nextEvent).cycle() <= cycle) {
+				Event event = events.get(nextEvent++);
+				gameBoy.runUntil(Math.max(gameBoy.cycles(), event.cycle()));
+				event.applyTo(gameBoy.joypad());
+			}
+			gameBoy.runUntil(cycle);
+		}
+
+		/**
+		 * @return vrai ssi tous les événements du film ont été transmis
+		 */
+		public boolean finished() {
+			return nextEvent == events.size();
+		}
+	}
+}
@@ -3,12 +3,12 @@ package ch.epfl.gameboj.bits;
 import java.util.Arrays;
 import java.util.Objects;
 
-import static java.lang.Math.*;
 import ch.epfl.gameboj.Preconditions;
 
 public final class BitVector {
 
-	private final int[] vector;
+	private final long[] words;
+	private final int size;
 
 	/**
 	 * Construit un vecteur de bits de la taille donnée, dont tous les bits ont la
@@ -24,7 +24,7 @@ public final class BitVector {
 	 *             si size n'est pas positif ou un multiple de 32
 	 */
 	public BitVector(int size, boolean value) {
-		this(newVector(size, value));
+		this(newVector(size, value), size);
 	}
 
 	/**
@@ -42,11 +42,16 @@ public final class BitVector {
 	}
 
 	/**
-	 * @param arrayVector
-	 *            : tableau à partir du quel va être construit le vecteur de bits
+	 * @param words
+	 *            : tableau de mots à partir duquel va être construit le vecteur de
+	 *            bits, dont les bits au-delà de la taille valent 0 ; il ne doit plus
+	 *            être modifié
+	 * @param size
+	 *            : taille du vecteur, en bits
 	 */
-	private BitVector(int[] arrayVector) {
-		this.vector = arrayVector;
+	BitVector(long[] words, int size) {
+		this.words = words;
+		this.size = size;
 	}
 
 	/**
@@ -65,11 +70,13 @@ public final class BitVector {
 	 * @throws IllegalArgumentException
 	 *             si size n'est pas positif ou un multiple de 32
 	 */
-	private static int[] newVector(int size, boolean value) {
+	private static long[] newVector(int size, boolean value) {
 		Preconditions.checkArgument(size > 0 && (size % Integer.SIZE) == 0);
-		int v = (value) ? -1 : 0;
-		int[] array = new int[size / Integer.SIZE];
-		Arrays.fill(array, v);
+		long[] array = new long[MutableBitVector.wordsFor(size)];
+		if (value) {
+			Arrays.fill(array, -1L);
+			array[array.length - 1] &= MutableBitVector.lastWordMask(size);
+		}
 		return array;
 	}
 
@@ -77,7 +84,24 @@ public final class BitVector {
 	 * @return la taille du vecteur, en bits
 	 */
 	public int size() {
-		return vector.length * Integer.SIZE;
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            : index du mot, entre 0 (inclus) et (size + 63) / 64 (exclus)
+	 * @return les 64 bits débutant au bit d'index 64 * index, les bits au-delà de
+	 *         la taille du vecteur valant 0
+	 */
+	public long word(int index) {
+		return words[index];
+	}
+
+	/**
+	 * @return le tableau des mots du vecteur, qui ne doit pas être modifié
+	 */
+	long[] words() {
+		return words;
 	}
 
 	/**
@@ -91,8 +115,8 @@ public final class BitVector {
 	 *             si l'index est invalide
 	 */
 	public boolean testBit(int index) {
-		Objects.checkIndex(index, vector.length * Integer.SIZE);
-		return Bits.test(vector[index / Integer.SIZE], index % Integer.SIZE);
+		Objects.checkIndex(index, size);
+		return ((words[index / Long.SIZE] >>> index) & 1) != 0;
 	}
 
 	/**
@@ -100,11 +124,12 @@ public final class BitVector {
 	 *         l'instance courrante
 	 */
 	public BitVector not() {
-		int[] complement = new int[vector.length];
-		for (int i = 0; i < vector.length; ++i) {
-			complement[i] = ~vector[i];
+		long[] complement = new long[words.length];
+		for (int i = 0; i < words.length; ++i) {
+			complement[i] = ~words[i];
 		}
-		return new BitVector(complement);
+		complement[words.length - 1] &= MutableBitVector.lastWordMask(size);
+		return new BitVector(complement, size);
 	}
 
 	/**
@@ -121,12 +146,10 @@ public final class BitVector {
 	 */
 	public BitVector and(BitVector that) {
 		Objects.requireNonNull(that);
-		Preconditions.checkArgument(size() == that.size());
-		int[] and = new int[vector.length];
-		for (int i = 0; i < vector.length; ++i) {
-			and[i] = vector[i] & that.vector[i];
-		}
-		return new BitVector(and);
+		Preconditions.checkArgument(size == that.size);
+		long[] and = new long[words.length];
+		MutableBitVector.and(words, that.words, and, words.length);
+		return new BitVector(and, size);
 	}
 
 	/**
@@ -143,12 +166,34 @@ public final class BitVector {
 	 */
 	public BitVector or(BitVector that) {
 		Objects.requireNonNull(that);
-		Preconditions.checkArgument(size() == that.size());
-		int[] or = new int[vector.length];
-		for (int i = 0; i < vector.length; ++i) {
-			or[i] = vector[i] | that.vector[i];
-		}
-		return new BitVector(or);
+		Preconditions.checkArgument(size == that.size);
+		long[] or = new long[words.length];
+		MutableBitVector.or(words, that.words, or, words.length);
+		return new BitVector(or, size);
+	}
+
+	/**
+	 * Retourne un vecteur de bits contenant les bits du vecteur donné là où le
+	 * masque vaut 1, et ceux de l'instance courante ailleurs ; équivaut à
+	 * that.and(mask).or(this.and(mask.not())), en un seul passage
+	 * 
+	 * @param mask
+	 *            : masque de sélection, de même taille. Doit être non null.
+	 * @param that
+	 *            : vecteur dont les bits sont sélectionnés, de même taille. Doit
+	 *            être non null.
+	 * @return le vecteur issu de la sélection
+	 * 
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public BitVector select(BitVector mask, BitVector that) {
+		Objects.requireNonNull(mask);
+		Objects.requireNonNull(that);
+		Preconditions.checkArgument(size == mask.size && size == that.size);
+		long[] selected = new long[words.length];
+		MutableBitVector.select(mask.words, that.words, words, selected, words.length);
+		return new BitVector(selected, size);
 	}
 
 	/**
@@ -167,7 +212,7 @@ public final class BitVector {
 	 */
 	public BitVector extractZeroExtended(int index, int size) {
 		Preconditions.checkArgument(size > 0 && size % Integer.SIZE == 0);
-		return extract(index, size, true);
+		return extract(index, size, false);
 	}
 
 	/**
@@ -186,7 +231,7 @@ public final class BitVector {
 	 */
 	public BitVector extractWrapped(int index, int size) {
 		Preconditions.checkArgument(size > 0 && size % Integer.SIZE == 0);
-		return extract(index, size, false);
+		return extract(index, size, true);
 
 	}
 
@@ -197,42 +242,14 @@ public final class BitVector {
 	 *            : index à partir duquel on va extraire les size bits
 	 * @param size
 	 *            : nombre de bits à extraire
-	 * @param isZeroExtended
-	 *            : vrai si l'extraction se fait selon l'extension par 0
+	 * @param isWrapped
+	 *            : vrai si l'extraction se fait selon l'extension par enroulement
 	 * @return le BitVector correspondant à l'extraction
 	 */
-	private BitVector extract(int startIndex, int size, boolean isZeroExtended) {
-		int[] extracted = new int[size / Integer.SIZE];
-		int floorIndex = floorDiv(startIndex, Integer.SIZE);
-		int shift = floorMod(startIndex, Integer.SIZE);
-
-		if (startIndex % Integer.SIZE == 0) {
-			for (int i = 0; i < (size / Integer.SIZE); ++i)
-				extracted[i] = getElementOfInfiniteExtentionArray(floorIndex + i, isZeroExtended);
-
-		} else {
-			for (int i = 0; i < (size / Integer.SIZE); ++i) {
-				int lowValue = Bits.extract(getElementOfInfiniteExtentionArray(floorIndex + i, isZeroExtended), shift,
-						Integer.SIZE - shift);
-				int highValue = getElementOfInfiniteExtentionArray(floorIndex + i + 1, isZeroExtended);
-				extracted[i] = (highValue << (Integer.SIZE - shift)) | lowValue;
-			}
-		}
-		return new BitVector(extracted);
-	}
-
-	/**
-	 * Retourne l'élement de l'extention infinie correspondant à l'index donné
-	 * 
-	 * @param index
-	 *            : index de l'élement à retourner, selon le type de l'extraction
-	 * @param isZeroExtended
-	 *            : vrai si l'extraction se fait selon l'extension par 0
-	 * @return l'élement de l'extention infinie
-	 */
-	private int getElementOfInfiniteExtentionArray(int index, boolean isZeroExtended) {
-		int valueOutOfVectorArray = (isZeroExtended) ? 0 : vector[floorMod(vector.length + index, vector.length)];
-		return (index >= 0 && index < vector.length) ? vector[index] : valueOutOfVectorArray;
+	private BitVector extract(int startIndex, int size, boolean isWrapped) {
+		long[] extracted = new long[MutableBitVector.wordsFor(size)];
+		MutableBitVector.extract(words, this.size, startIndex, isWrapped, extracted, size);
+		return new BitVector(extracted, size);
 	}
 
 	/**
@@ -251,26 +268,20 @@ public final class BitVector {
 
 	@Override
 	public boolean equals(Object object) {
-		return (object instanceof BitVector) && Arrays.equals(((BitVector) object).vector, vector);
+		return (object instanceof BitVector) && ((BitVector) object).size == size
+				&& Arrays.equals(((BitVector) object).words, words);
 	}
 
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(vector);
+		return Arrays.hashCode(words);
 	}
 
 	@Override
 	public String toString() {
-		StringBuilder b = new StringBuilder();
-		for (int i = vector.length - 1; i >= 0; --i) {
-			int value = vector[i];
-			for (int j = 0; j < Integer.numberOfLeadingZeros(value); ++j) {
-				b.append("0");
-			}
-			if (value != 0) {
-				b.append(Integer.toBinaryString(value));
-			}
-
+		StringBuilder b = new StringBuilder(size);
+		for (int i = size - 1; i >= 0; --i) {
+			b.append(testBit(i) ? '1' : '0');
 		}
 		return b.toString();
 
@@ -281,19 +292,9 @@ public final class BitVector {
 	 */
 	public String toHexString() {
 		StringBuilder b = new StringBuilder();
-		for (int i = vector.length - 1; i >= 0; --i) {
-			int value = vector[i];
-
-			for (int j = 0; j < 8; ++j) {
-				if ((value >>> Integer.SIZE - (4 * j)) == 0) {
-					b.append("0");
-				}
-				continue;
-			}
-
-			if (value != 0) {
-				b.append(Integer.toHexString(value));
-			}
+		for (int i = size / 4 - 1; i >= 0; --i) {
+			int nibble = (int) (words[4 * i / Long.SIZE] >>> (4 * i)) & 0xF;
+			b.append(Character.forDigit(nibble, 16));
 		}
 		return b.toString();
 	}
@@ -307,9 +308,7 @@ public final class BitVector {
 	 */
 	public final static class Builder {
 
-		private int[] vector;
-		private static final int[] MASK = {0xFFFFFF00, 0xFFFF00FF, 0xFF00FFFF, 0x00FFFFFF};
-		private static final int BYTES_PER_INTEGER = 4;
+		private MutableBitVector vector;
 
 		/**
 		 * @param size
@@ -320,8 +319,7 @@ public final class BitVector {
 		 *             multiple de 32
 		 */
 		public Builder(int size) {
-			Preconditions.checkArgument(size > 0 && (size % Integer.SIZE) == 0);
-			vector = new int[size / Integer.SIZE];
+			vector = new MutableBitVector(size);
 		}
 
 		/**
@@ -344,14 +342,29 @@ public final class BitVector {
 			if (vector == null) {
 				throw new IllegalStateException();
 			}
-			Objects.checkIndex(index, BYTES_PER_INTEGER * vector.length);
-			Preconditions.checkBits8(newValue);
-			int arrayIndex = index / BYTES_PER_INTEGER;
-			int byteIndex = index %BYTES_PER_INTEGER;
-			int byteShift = Byte.SIZE * (byteIndex);
-			int v = vector[arrayIndex];
-
-			vector[arrayIndex] = v & MASK[byteIndex]| newValue << byteShift;
+			vector.setByte(index, newValue);
+			return this;
+		}
+
+		/**
+		 * Définir la valeur des 64 bits débutant au bit d'index 64 * index
+		 * 
+		 * @param index
+		 *            : index du mot, entre 0 (inclus) et (size + 63) / 64 (exclus)
+		 * @param newValue
+		 *            : valeur du mot, les bits au-delà de la taille du vecteur étant
+		 *            ignorés
+		 * 
+		 * @throws IllegalStateException
+		 *             si le bitVector a déjà été construit
+		 * @throws IndexOutOfBoundsException
+		 *             si l'index est invalide
+		 */
+		public Builder setWord(int index, long newValue) {
+			if (vector == null) {
+				throw new IllegalStateException();
+			}
+			vector.setWord(index, newValue);
 			return this;
 		}
 
@@ -365,7 +378,7 @@ public final class BitVector {
 			if (vector == null) {
 				throw new IllegalStateException();
 			}
-			BitVector b = new BitVector(vector);
+			BitVector b = new BitVector(vector.words(), vector.size());
 			vector = null;
 			return b;
 		}
@@ -0,0 +1,440 @@
+package ch.epfl.gameboj.bits;
+
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.floorMod;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+ * Vecteur de bits modifiable, stocké dans un tableau de long, dont les
+ * opérations modifient l'instance elle-même au lieu d'en créer une nouvelle. Il
+ * permet d'enchaîner les calculs sur des lignes sans allouer de vecteurs
+ * intermédiaires ; BitVector, sa version immuable, s'appuie sur les mêmes
+ * opérations.
+ *
+ * Les bits du dernier mot au-delà de la taille du vecteur valent toujours 0.
+ */
+public final class MutableBitVector {
+
+	private final long[] words;
+	private final int size;
+
+	/**
+	 * Construit un vecteur de bits modifiable de la taille donnée, dont tous les
+	 * bits valent 0
+	 *
+	 * @param size
+	 *            : taille du vecteur de bits à construire, doit être un multiple de
+	 *            32 strictement positif
+	 * @throws IllegalArgumentException
+	 *             si size n'est pas positif ou un multiple de 32
+	 */
+	public MutableBitVector(int size) {
+		Preconditions.checkArgument(size > 0 && (size % Integer.SIZE) == 0);
+		this.size = size;
+		this.words = new long[wordsFor(size)];
+	}
+
+	/**
+	 * Construit un vecteur de bits modifiable contenant les mêmes bits que le
+	 * vecteur donné
+	 *
+	 * @param that
+	 *            : vecteur à copier, non null
+	 */
+	public MutableBitVector(BitVector that) {
+		this(that.size());
+		set(that);
+	}
+
+	/**
+	 * @param size
+	 *            : taille d'un vecteur, en bits
+	 * @return le nombre de mots de 64 bits nécessaires pour stocker un vecteur de
+	 *         cette taille
+	 */
+	static int wordsFor(int size) {
+		return (size + Long.SIZE - 1) / Long.SIZE;
+	}
+
+	/**
+	 * @return la taille du vecteur, en bits
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            : index du mot, entre 0 (inclus) et (size + 63) / 64 (exclus)
+	 * @return les 64 bits débutant au bit d'index 64 * index
+	 */
+	public long word(int index) {
+		return words[index];
+	}
+
+	/**
+	 * Remplace les 64 bits débutant au bit d'index 64 * index ; les bits au-delà
+	 * de la taille du vecteur sont ignorés
+	 *
+	 * @param index
+	 *            : index du mot
+	 * @param value
+	 *            : nouvelle valeur du mot
+	 * @return le vecteur lui-même
+	 */
+	public MutableBitVector setWord(int index, long value) {
+		words[index] = value;
+		if (index == words.length - 1)
+			clearUnusedBits();
+		return this;
+	}
+
+	/**
+	 * @param index
+	 *            : index du bit à tester
+	 * @return vrai ssi le bit d'index donné vaut 1
+	 * @throws IndexOutOfBoundsException
+	 *             si l'index est invalide
+	 */
+	public boolean testBit(int index) {
+		Objects.checkIndex(index, size);
+		return ((words[index / Long.SIZE] >>> index) & 1) != 0;
+	}
+
+	/**
+	 * Remplace l'octet d'index donné
+	 *
+	 * @param index
+	 *            : index de l'octet, entre 0 et size / 8 (exclus)
+	 * @param value
+	 *            : valeur 8 bits de l'octet
+	 * @return le vecteur lui-même
+	 * @throws IndexOutOfBoundsException
+	 *             si l'index est invalide
+	 * @throws IllegalArgumentException
+	 *             si value n'est pas une valeur 8 bits
+	 */
+	public MutableBitVector setByte(int index, int value) {
+		Objects.checkIndex(index, size / Byte.SIZE);
+		Preconditions.checkBits8(value);
+		int shift = (index * Byte.SIZE) % Long.SIZE;
+		int i = index * Byte.SIZE / Long.SIZE;
+		words[i] = (words[i] & ~(0xFFL << shift)) | ((long) value << shift);
+		return this;
+	}
+
+	/**
+	 * Donne la même valeur à tous les bits du vecteur
+	 *
+	 * @param value
+	 *            : nouvelle valeur des bits (1 ssi vraie)
+	 * @return le vecteur lui-même
+	 */
+	public MutableBitVector fill(boolean value) {
+		Arrays.fill(words, value ? -1L : 0L);
+		clearUnusedBits();
+		return this;
+	}
+
+	/**
+	 * Copie les bits du vecteur donné, de même taille
+	 *
+	 * @param that
+	 *            : vecteur à copier, non null
+	 * @return le vecteur lui-même
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public MutableBitVector set(BitVector that) {
+		checkSameSize(that.size());
+		System.arraycopy(that.words(), 0, words, 0, words.length);
+		return this;
+	}
+
+	/**
+	 * Copie les bits du vecteur modifiable donné, de même taille
+	 *
+	 * @param that
+	 *            : vecteur à copier, non null
+	 * @return le vecteur lui-même
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public MutableBitVector set(MutableBitVector that) {
+		checkSameSize(that.size);
+		System.arraycopy(that.words, 0, words, 0, words.length);
+		return this;
+	}
+
+	/**
+	 * Remplace le vecteur par son complément
+	 *
+	 * @return le vecteur lui-même
+	 */
+	public MutableBitVector not() {
+		for (int i = 0; i < words.length; ++i)
+			words[i] = ~words[i];
+		clearUnusedBits();
+		return this;
+	}
+
+	/**
+	 * Remplace le vecteur par sa conjonction avec le vecteur donné
+	 *
+	 * @param that
+	 *            : vecteur de même taille, non null
+	 * @return le vecteur lui-même
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public MutableBitVector and(BitVector that) {
+		and(words, that.words(), words, checkSameSize(that.size()));
+		return this;
+	}
+
+	/**
+	 * Remplace le vecteur par sa disjonction avec le vecteur donné
+	 *
+	 * @param that
+	 *            : vecteur de même taille, non null
+	 * @return le vecteur lui-même
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public MutableBitVector or(BitVector that) {
+		or(words, that.words(), words, checkSameSize(that.size()));
+		return this;
+	}
+
+	/**
+	 * Remplace le vecteur par sa disjonction avec le vecteur modifiable donné
+	 *
+	 * @param that
+	 *            : vecteur de même taille, non null
+	 * @return le vecteur lui-même
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public MutableBitVector or(MutableBitVector that) {
+		or(words, that.words, words, checkSameSize(that.size));
+		return this;
+	}
+
+	/**
+	 * Remplace, là où le masque donné vaut 1, les bits du vecteur par ceux du
+	 * vecteur donné
+	 *
+	 * @param mask
+	 *            : masque de sélection, de même taille, non null
+	 * @param that
+	 *            : vecteur dont les bits sont sélectionnés, de même taille, non null
+	 * @return le vecteur lui-même
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public MutableBitVector select(BitVector mask, BitVector that) {
+		checkSameSize(mask.size());
+		select(mask.words(), that.words(), words, words, checkSameSize(that.size()));
+		return this;
+	}
+
+	/**
+	 * Remplace, là où le masque modifiable donné vaut 1, les bits du vecteur par
+	 * ceux du vecteur donné
+	 *
+	 * @param mask
+	 *            : masque de sélection, de même taille, non null
+	 * @param that
+	 *            : vecteur dont les bits sont sélectionnés, de même taille, non null
+	 * @return le vecteur lui-même
+	 * @throws IllegalArgumentException
+	 *             si les vecteurs n'ont pas la même taille
+	 */
+	public MutableBitVector select(MutableBitVector mask, BitVector that) {
+		checkSameSize(mask.size);
+		select(mask.words, that.words(), words, words, checkSameSize(that.size()));
+		return this;
+	}
+
+	/**
+	 * Décale le vecteur de la distance donnée, une distance positive représentant
+	 * un décalage à gauche, une distance négative un décalage à droite
+	 *
+	 * @param distance
+	 *            : distance du décalage, en bits
+	 * @return le vecteur lui-même
+	 */
+	public MutableBitVector shift(int distance) {
+		// en décalant à gauche, chaque mot ne dépend que des mots d'index inférieur
+		// ou égal : on les parcourt donc en ordre décroissant, et inversement
+		if (distance > 0) {
+			for (int i = words.length - 1; i >= 0; --i)
+				words[i] = zeroExtendedWordAt(words, Long.SIZE * i - distance);
+		} else if (distance < 0) {
+			for (int i = 0; i < words.length; ++i)
+				words[i] = zeroExtendedWordAt(words, Long.SIZE * i - distance);
+		}
+		clearUnusedBits();
+		return this;
+	}
+
+	/**
+	 * Remplace le vecteur par l'extraction, à partir de l'index donné, de
+	 * l'extension par 0 du vecteur donné
+	 *
+	 * @param that
+	 *            : vecteur dont on extrait les bits, non null
+	 * @param index
+	 *            : index du premier bit extrait
+	 * @return le vecteur lui-même
+	 */
+	public MutableBitVector extractZeroExtended(BitVector that, int index) {
+		extract(that.words(), that.size(), index, false, words, size);
+		return this;
+	}
+
+	/**
+	 * Remplace le vecteur par l'extraction, à partir de l'index donné, de
+	 * l'extension par enroulement du vecteur donné
+	 *
+	 * @param that
+	 *            : vecteur dont on extrait les bits, non null
+	 * @param index
+	 *            : index du premier bit extrait
+	 * @return le vecteur lui-même
+	 */
+	public MutableBitVector extractWrapped(BitVector that, int index) {
+		extract(that.words(), that.size(), index, true, words, size);
+		return this;
+	}
+
+	/**
+	 * @return le tableau des mots du vecteur
+	 */
+	long[] words() {
+		return words;
+	}
+
+	/**
+	 * @return un vecteur de bits immuable contenant une copie des bits du vecteur
+	 */
+	public BitVector toBitVector() {
+		return new BitVector(words.clone(), size);
+	}
+
+	@Override
+	public String toString() {
+		return toBitVector().toString();
+	}
+
+	/**
+	 * @param thatSize
+	 *            : taille d'un autre vecteur
+	 * @return le nombre de mots du vecteur
+	 * @throws IllegalArgumentException
+	 *             si la taille donnée n'est pas celle du vecteur
+	 */
+	private int checkSameSize(int thatSize) {
+		Preconditions.checkArgument(thatSize == size);
+		return words.length;
+	}
+
+	/**
+	 * Remet à 0 les bits du dernier mot situés au-delà de la taille du vecteur
+	 */
+	private void clearUnusedBits() {
+		words[words.length - 1] &= lastWordMask(size);
+	}
+
+	/**
+	 * @param size
+	 *            : taille d'un vecteur, en bits
+	 * @return le masque des bits utilisés du dernier mot d'un vecteur de cette
+	 *         taille
+	 */
+	static long lastWordMask(int size) {
+		return (size % Long.SIZE == 0) ? -1L : (1L << size) - 1;
+	}
+
+	// Opérations sur les tableaux de mots, partagées avec BitVector
+
+	/**
+	 * Calcule la conjonction mot à mot de a et b dans result
+	 */
+	static void and(long[] a, long[] b, long[] result, int length) {
+		for (int i = 0; i < length; ++i)
+			result[i] = a[i] & b[i];
+	}
+
+	/**
+	 * Calcule la disjonction mot à mot de a et b dans result
+	 */
+	static void or(long[] a, long[] b, long[] result, int length) {
+		for (int i = 0; i < length; ++i)
+			result[i] = a[i] | b[i];
+	}
+
+	/**
+	 * Calcule dans result les bits de ifSet là où mask vaut 1 et ceux de ifClear
+	 * ailleurs
+	 */
+	static void select(long[] mask, long[] ifSet, long[] ifClear, long[] result, int length) {
+		for (int i = 0; i < length; ++i)
+			result[i] = (ifSet[i] & mask[i]) | (ifClear[i] & ~mask[i]);
+	}
+
+	/**
+	 * Remplit result (de taille resultSize) avec les bits de l'extension par 0 ou
+	 * par enroulement de source (de taille sourceSize), à partir de l'index donné
+	 */
+	static void extract(long[] source, int sourceSize, int index, boolean wrapped, long[] result, int resultSize) {
+		for (int i = 0; i < result.length; ++i) {
+			int start = index + Long.SIZE * i;
+			result[i] = wrapped ? wrappedWordAt(source, sourceSize, start) : zeroExtendedWordAt(source, start);
+		}
+		result[result.length - 1] &= lastWordMask(resultSize);
+	}
+
+	/**
+	 * @return les 64 bits de l'extension par 0 de source débutant à l'index donné,
+	 *         les bits inutilisés du dernier mot de source valant 0
+	 */
+	private static long zeroExtendedWordAt(long[] source, int index) {
+		int word = floorDiv(index, Long.SIZE);
+		int shift = floorMod(index, Long.SIZE);
+		long low = wordOrZero(source, word) >>> shift;
+		return (shift == 0) ? low : low | (wordOrZero(source, word + 1) << (Long.SIZE - shift));
+	}
+
+	/**
+	 * @return les 64 bits de l'extension par enroulement de source (de taille
+	 *         size) débutant à l'index donné
+	 */
+	private static long wrappedWordAt(long[] source, int size, int index) {
+		index = floorMod(index, size);
+		if (index + Long.SIZE <= size)
+			return zeroExtendedWordAt(source, index);
+
+		// le mot chevauche la fin du vecteur : on recolle les morceaux, l'extension
+		// par 0 garantissant que les bits au-delà de la fin valent 0
+		long result = 0;
+		int filled = 0;
+		while (filled < Long.SIZE) {
+			result |= zeroExtendedWordAt(source, index) << filled;
+			filled += size - index;
+			index = 0;
+		}
+		return result;
+	}
+
+	/**
+	 * @return le mot d'index donné de source, ou 0 s'il est hors du tableau
+	 */
+	private static long wordOrZero(long[] source, int index) {
+		return (index >= 0 && index < source.length) ? source[index] : 0L;
+	}
+}
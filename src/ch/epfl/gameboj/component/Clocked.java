@@ -12,4 +12,19 @@ public interface Clocked {
 	 */
 	public void cycle(long cycle);
 
+	/**
+	 * Retourne le premier cycle, supérieur ou égal au cycle donné, durant lequel le
+	 * composant a réellement du travail à effectuer, en supposant qu'aucun autre
+	 * composant ne modifie son état d'ici là, ou Long.MAX_VALUE si le composant est
+	 * inactif jusqu'à nouvel ordre. Par défaut, le composant doit être simulé à
+	 * chaque cycle.
+	 * 
+	 * @param cycle
+	 *            : cycle à partir duquel on cherche le prochain événement
+	 * @return le cycle du prochain événement du composant
+	 */
+	public default long nextEventCycle(long cycle) {
+		return cycle;
+	}
+
 }
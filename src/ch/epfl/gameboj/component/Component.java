@@ -30,6 +30,18 @@ public interface Component {
 	 */
 	public abstract void write(int address, int data);
 
+	/**
+	 * Retourne les plages d'adresses occupées par le composant, sous la forme de
+	 * paires { début (inclus), fin (exclue) }. Le bus ne transmet au composant que
+	 * les accès dont l'adresse se trouve dans l'une de ces plages ; par défaut, le
+	 * composant occupe tout l'espace d'adressage.
+	 * 
+	 * @return les plages d'adresses occupées par le composant
+	 */
+	public default int[][] addressRanges() {
+		return new int[][] { { 0, 0x10000 } };
+	}
+
 	/**
 	 * Attache le composant au bus donné
 	 * 
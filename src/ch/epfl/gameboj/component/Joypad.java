@@ -2,6 +2,7 @@ package ch.epfl.gameboj.component;
 
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
@@ -11,7 +12,7 @@ import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 
-public final class Joypad implements Component {
+public final class Joypad implements Component, Stateful {
 
 	/**
 	 * @author lucas Type énuméré représentant les diférents bit de registre P1
@@ -72,6 +73,45 @@ public final class Joypad implements Component {
 		}
 	}
 
+	/**
+	 * Remplace l'état du clavier par celui du clavier donné
+	 * 
+	 * @param that
+	 *            : clavier à copier, non null
+	 */
+	public void copyFrom(Joypad that) {
+		P1 = that.P1;
+		row0 = that.row0;
+		row1 = that.row1;
+		row0Activated = that.row0Activated;
+		row1Activated = that.row1Activated;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+		buffer.put((byte) P1).put((byte) row0).put((byte) row1);
+		buffer.put((byte) (row0Activated ? 1 : 0)).put((byte) (row1Activated ? 1 : 0));
+	}
+
+	@Override
+	public void loadState(ByteBuffer buffer) {
+		P1 = Byte.toUnsignedInt(buffer.get());
+		row0 = Byte.toUnsignedInt(buffer.get());
+		row1 = Byte.toUnsignedInt(buffer.get());
+		row0Activated = buffer.get() != 0;
+		row1Activated = buffer.get() != 0;
+	}
+
+	@Override
+	public void checkState(ByteBuffer buffer) {
+		Stateful.skip(buffer, 5 * Byte.BYTES);
+	}
+
+	@Override
+	public int[][] addressRanges() {
+		return new int[][] { { AddressMap.REG_P1, AddressMap.REG_P1 + 1 } };
+	}
+
 	/**
 	 * Permet de simuler la pression d'une touche
 	 * 
@@ -0,0 +1,21 @@
+package ch.epfl.gameboj.component;
+
+/**
+ * Auditeur des changements du contenu visible d'une zone de la mémoire morte,
+ * sans écriture dans celle-ci : changement de banc de la cartouche ou
+ * désactivation de la mémoire de démarrage. Seul le composant responsable de la
+ * zone sait quelles écritures en changent le contenu.
+ */
+public interface RomSwitchListener {
+
+	/**
+	 * Signale que le contenu visible de la zone donnée de la mémoire morte vient
+	 * de changer
+	 *
+	 * @param start
+	 *            : adresse de début de la zone
+	 * @param end
+	 *            : adresse de fin (exclue) de la zone
+	 */
+	public abstract void romSwitched(int start, int end);
+}
@@ -0,0 +1,63 @@
+package ch.epfl.gameboj.component;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Objet dont l'état peut être sauvegardé dans un tampon d'octets, puis restauré,
+ * p.ex. pour les sauvegardes d'état complètes du GameBoy
+ */
+public interface Stateful {
+
+	/**
+	 * Écrit l'état complet de l'objet dans le tampon donné, à partir de sa
+	 * position, dans un format binaire propre à l'objet
+	 *
+	 * @param buffer
+	 *            : tampon dans lequel écrire l'état
+	 * @throws java.nio.BufferOverflowException
+	 *             si le tampon n'a pas la place nécessaire
+	 */
+	public abstract void saveState(ByteBuffer buffer);
+
+	/**
+	 * Remplace l'état de l'objet par celui lu dans le tampon donné, à partir de sa
+	 * position, tel qu'écrit par saveState
+	 *
+	 * @param buffer
+	 *            : tampon contenant l'état
+	 * @throws java.nio.BufferUnderflowException
+	 *             si le tampon est trop court
+	 */
+	public abstract void loadState(ByteBuffer buffer);
+
+	/**
+	 * Vérifie, sans modifier l'objet, que le tampon donné contient à partir de sa
+	 * position un état que loadState peut lire, et avance sa position jusqu'à la
+	 * fin de cet état
+	 *
+	 * @param buffer
+	 *            : tampon contenant l'état
+	 * @throws IllegalArgumentException
+	 *             si l'une des valeurs de l'état n'est pas valide
+	 * @throws java.nio.BufferUnderflowException
+	 *             si le tampon est trop court
+	 */
+	public abstract void checkState(ByteBuffer buffer);
+
+	/**
+	 * Avance la position du tampon donné du nombre d'octets donné
+	 *
+	 * @param buffer
+	 *            : tampon dont la position est avancée
+	 * @param bytes
+	 *            : nombre d'octets à sauter, positif ou nul
+	 * @throws BufferUnderflowException
+	 *             si le tampon contient moins d'octets
+	 */
+	public static void skip(ByteBuffer buffer, int bytes) {
+		if (buffer.remaining() < bytes)
+			throw new BufferUnderflowException();
+		buffer.position(buffer.position() + bytes);
+	}
+}
@@ -2,6 +2,7 @@ package ch.epfl.gameboj.component;
 
 
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Preconditions;
@@ -9,10 +10,16 @@ import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 
-public final class Timer implements Component, Clocked {
+public final class Timer implements Component, Clocked, Stateful {
+
+	private static final int DIV_INCREMENT = 4;
+	private static final int TIMA_OVERFLOW = 0x100;
+	private static final int[] SELECTED_DIV_BIT = { 9, 3, 5, 7 };
 
 	private final Cpu cpu;
 	private int div, tima, tma, tac;
+	// dernier cycle jusqu'auquel (inclus) l'état du minuteur a été calculé
+	private long lastCycle;
 
 	/**
 	 * Construit un minuteur associé au processeur donné, ou lève l'exception
@@ -27,14 +34,79 @@ public final class Timer implements Component, Clocked {
 		tima = 0;
 		tma = 0;
 		tac = 0;
+		lastCycle = -1;
 
 	}
 
+	/**
+	 * Remplace l'état du minuteur par celui du minuteur donné
+	 * 
+	 * @param that
+	 *            : minuteur à copier, non null
+	 */
+	public void copyFrom(Timer that) {
+		div = that.div;
+		tima = that.tima;
+		tma = that.tma;
+		tac = that.tac;
+		lastCycle = that.lastCycle;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+		buffer.putShort((short) div).put((byte) tima).put((byte) tma).put((byte) tac);
+		buffer.putLong(lastCycle);
+	}
+
+	@Override
+	public void loadState(ByteBuffer buffer) {
+		div = Short.toUnsignedInt(buffer.getShort());
+		tima = Byte.toUnsignedInt(buffer.get());
+		tma = Byte.toUnsignedInt(buffer.get());
+		tac = Byte.toUnsignedInt(buffer.get());
+		lastCycle = buffer.getLong();
+	}
+
+	@Override
+	public void checkState(ByteBuffer buffer) {
+		Stateful.skip(buffer, Short.BYTES + 3 * Byte.BYTES);
+		Preconditions.checkArgument(buffer.getLong() >= -1);
+	}
+
+	/**
+	 * Le minuteur est évalué paresseusement : au lieu d'incrémenter le compteur
+	 * principal à chaque cycle, on rattrape d'un coup tous les cycles écoulés
+	 * depuis le dernier appel, en comptant les fronts descendants de l'état qu'ils
+	 * auraient produit. Appeler cette méthode plusieurs fois avec le même cycle
+	 * n'a aucun effet.
+	 */
 	@Override
 	public void cycle(long cycle) {
-		boolean previousState = state();
-		div = Bits.clip(16, div + 4);
-		incIfChange(previousState);
+		if (cycle <= lastCycle)
+			return;
+
+		long end = div + DIV_INCREMENT * (cycle - lastCycle);
+		if (Bits.test(tac, 2)) {
+			int periodBits = selectedBit() + 1;
+			incrementTima((end >>> periodBits) - (div >>> periodBits));
+		}
+		div = Bits.clip(16, (int) end);
+		lastCycle = cycle;
+	}
+
+	/**
+	 * Retourne le cycle durant lequel le compteur secondaire va déborder (et lever
+	 * l'interruption TIMER), ou Long.MAX_VALUE si le minuteur est désactivé.
+	 */
+	@Override
+	public long nextEventCycle(long cycle) {
+		if (!Bits.test(tac, 2))
+			return Long.MAX_VALUE;
+
+		int period = 1 << (selectedBit() + 1);
+		long firstEdge = (period - (div & (period - 1))) / DIV_INCREMENT;
+		long edgesToOverflow = TIMA_OVERFLOW - tima;
+		return lastCycle + firstEdge + (edgesToOverflow - 1) * (period / DIV_INCREMENT);
 	}
 
 	@Override
@@ -84,36 +156,26 @@ public final class Timer implements Component, Clocked {
 
 	}
 
+	@Override
+	public int[][] addressRanges() {
+		return new int[][] { { AddressMap.REG_DIV, AddressMap.REG_TAC + 1 } };
+	}
+
 	/**
 	 * @return l'état du minuteur, c-à-d la conjonction logique du bit 2 du registre
 	 *         TAC et du bit du compteur principal désigné par les 2 bits de poids
 	 *         faible de ce même registre,
 	 */
 	private boolean state() {
+		return Bits.test(tac, 2) && Bits.test(div, selectedBit());
+	}
 
-		int index = 0;
-		switch (Bits.extract(read(AddressMap.REG_TAC), 0, 2)) {
-		case 0: {
-			index = 9;
-		}
-			break;
-		case 1: {
-			index = 3;
-		}
-			break;
-		case 2: {
-			index = 5;
-		}
-			break;
-		case 3: {
-			index = 7;
-		}
-			break;
-		default:
-			break;
-		}
-		return Bits.test(tac, 2) && Bits.test(div, index);
-
+	/**
+	 * @return l'index du bit du compteur principal désigné par les 2 bits de poids
+	 *         faible du registre TAC
+	 */
+	private int selectedBit() {
+		return SELECTED_DIV_BIT[Bits.clip(2, tac)];
 	}
 
 	/**
@@ -126,12 +188,28 @@ public final class Timer implements Component, Clocked {
 	private void incIfChange(boolean previousState) {
 
 		if (previousState && !state()) {
-			if (tima == 0xFF) {
-				cpu.requestInterrupt(Interrupt.TIMER);
-				tima = tma;
-			} else {
-				tima++;
+			incrementTima(1);
+		}
+	}
+
+	/**
+	 * Incrémente le compteur secondaire le nombre de fois donné ; à chaque
+	 * débordement, l'interruption TIMER est levée et le compteur est rechargé avec
+	 * la valeur de TMA.
+	 * 
+	 * @param count
+	 *            : nombre d'incrémentations à effectuer, non négatif
+	 */
+	private void incrementTima(long count) {
+		while (count > 0) {
+			long untilOverflow = TIMA_OVERFLOW - tima;
+			if (count < untilOverflow) {
+				tima += count;
+				return;
 			}
+			count -= untilOverflow;
+			cpu.requestInterrupt(Interrupt.TIMER);
+			tima = tma;
 		}
 	}
 
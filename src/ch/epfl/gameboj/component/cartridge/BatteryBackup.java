@@ -0,0 +1,156 @@
+package ch.epfl.gameboj.component.cartridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.memory.Ram;
+
+/**
+ * Sauvegarde de la mémoire vive d'une cartouche alimentée par pile, dans un
+ * fichier .sav projeté en mémoire. Le contenu du fichier est chargé dans la
+ * mémoire vive à l'ouverture ; ensuite, seules les pages de 512 octets modifiées
+ * depuis la dernière écriture sont recopiées dans le fichier, périodiquement et
+ * par un fil séparé, sans jamais bloquer la simulation.
+ */
+public final class BatteryBackup implements AutoCloseable {
+
+	private static final int PAGE_SIZE = 512;
+	private static final int MAX_SIZE = Long.SIZE * PAGE_SIZE;
+	private static final long FLUSH_PERIOD_MS = 1000;
+
+	// fil unique, partagé par toutes les sauvegardes, recopiant les pages
+	// modifiées ; les écritures des sauvegardes fermées en sont aussitôt retirées
+	private static final ScheduledThreadPoolExecutor FLUSHER = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "gameboj-battery-flush");
+		t.setDaemon(true);
+		return t;
+	});
+	static {
+		FLUSHER.setRemoveOnCancelPolicy(true);
+	}
+
+	private final Ram ram;
+	private final MappedByteBuffer file;
+	// bit i à 1 ssi la page i de la mémoire vive a été modifiée depuis la dernière
+	// écriture dans le fichier
+	private final AtomicLong dirtyPages;
+	private final ScheduledFuture<?> flushTask;
+	private final Thread shutdownHook;
+
+	/**
+	 * @param ram
+	 *            : mémoire vive sauvegardée
+	 * @param file
+	 *            : projection du fichier de sauvegarde, de la taille de la mémoire
+	 */
+	private BatteryBackup(Ram ram, MappedByteBuffer file) {
+		this.ram = ram;
+		this.file = file;
+		this.dirtyPages = new AtomicLong();
+		this.flushTask = FLUSHER.scheduleWithFixedDelay(this::flush, FLUSH_PERIOD_MS, FLUSH_PERIOD_MS,
+				TimeUnit.MILLISECONDS);
+		this.shutdownHook = new Thread(this::flush, "gameboj-battery-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Ouvre (en le créant au besoin) le fichier de sauvegarde donné, charge son
+	 * contenu dans la mémoire vive donnée, et retourne la sauvegarde associée
+	 *
+	 * @param saveFile
+	 *            : fichier de sauvegarde, non null
+	 * @param ram
+	 *            : mémoire vive de la cartouche, non nulle, d'au plus 32 Kio
+	 * @return la sauvegarde de la mémoire vive dans le fichier
+	 * @throws IOException
+	 *             en cas d'erreur d'entrée-sortie
+	 * @throws IllegalArgumentException
+	 *             si la mémoire vive est vide ou trop grande
+	 */
+	public static BatteryBackup open(File saveFile, Ram ram) throws IOException {
+		Objects.requireNonNull(saveFile);
+		Preconditions.checkArgument(ram.size() > 0 && ram.size() <= MAX_SIZE);
+
+		MappedByteBuffer file;
+		long existingSize;
+		try (FileChannel channel = FileChannel.open(saveFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			existingSize = channel.size();
+			file = channel.map(FileChannel.MapMode.READ_WRITE, 0, ram.size());
+		}
+		for (int i = 0; i < Math.min(existingSize, ram.size()); ++i)
+			ram.write(i, Byte.toUnsignedInt(file.get(i)));
+		return new BatteryBackup(ram, file);
+	}
+
+	/**
+	 * Signale que l'octet d'index donné de la mémoire vive vient d'être modifié,
+	 * afin que sa page soit recopiée lors de la prochaine écriture du fichier
+	 *
+	 * @param index
+	 *            : index de l'octet modifié
+	 */
+	public void written(int index) {
+		long page = 1L << (index / PAGE_SIZE);
+		long dirty;
+		do {
+			dirty = dirtyPages.get();
+			if ((dirty & page) != 0)
+				return;
+		} while (!dirtyPages.compareAndSet(dirty, dirty | page));
+	}
+
+	/**
+	 * Signale que toute la mémoire vive vient d'être remplacée, p.ex. lors du
+	 * chargement d'un état, afin qu'elle soit entièrement recopiée lors de la
+	 * prochaine écriture du fichier
+	 */
+	public void allWritten() {
+		int pages = (ram.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+		dirtyPages.getAndUpdate(dirty -> dirty | (-1L >>> (Long.SIZE - pages)));
+	}
+
+	/**
+	 * Recopie dans le fichier les pages modifiées depuis le dernier appel, et
+	 * force leur écriture sur le disque
+	 */
+	public synchronized void flush() {
+		long dirty = dirtyPages.getAndSet(0);
+		if (dirty == 0)
+			return;
+
+		while (dirty != 0) {
+			int page = Long.numberOfTrailingZeros(dirty);
+			dirty &= dirty - 1;
+			int end = Math.min(ram.size(), (page + 1) * PAGE_SIZE);
+			for (int i = page * PAGE_SIZE; i < end; ++i)
+				file.put(i, (byte) ram.read(i));
+		}
+		file.force();
+	}
+
+	/**
+	 * Cesse les écritures périodiques, après avoir recopié une dernière fois les
+	 * pages modifiées ; les modifications ultérieures de la mémoire vive ne sont
+	 * plus sauvegardées
+	 */
+	@Override
+	public void close() {
+		flushTask.cancel(false);
+		flush();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// arrêt de la machine virtuelle en cours : le crochet s'exécute déjà
+		}
+	}
+}
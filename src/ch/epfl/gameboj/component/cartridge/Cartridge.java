@@ -1,24 +1,33 @@
 package ch.epfl.gameboj.component.cartridge;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
+import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.RomSwitchListener;
+import ch.epfl.gameboj.component.Stateful;
+import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
 
-public final class Cartridge implements Component {
+public final class Cartridge implements Component, Stateful, AutoCloseable {
 
 	private final Component mbc;
+	private final int identity;
 	private final static int MBC0_ROM_SIZE = 32768;
 	private final static int CARTRIDGE_TYPE_ADDRESS = 0x147;
 	private final static int RAM_SIZE_ADDRESS = 0x149;
+	private final static int HEADER_CHECKSUM_ADDRESS = 0x14D;
+	private final static int GLOBAL_CHECKSUM_ADDRESS = 0x14E;
 	private final static int MBC0 = 0;
 	private final static int MAX_VALUE_MBC1 = 3;
+	private final static int MBC1_RAM_BATTERY = 3;
+	private final static String ROM_EXTENSION = ".gb";
+	private final static String SAVE_EXTENSION = ".sav";
 	private final static int[] RAM_SIZE = { 0, 2048, 8192, 32768 };
 
 	/**
@@ -26,16 +35,19 @@ public final class Cartridge implements Component {
 	 * 
 	 * @param memoryBankController
 	 *            : le controle de banc de mémoire à associé à la cartouche
+	 * @param identity
+	 *            : identité du jeu contenu dans la mémoire morte
 	 */
-	private Cartridge(Component memoryBankController) {
+	private Cartridge(Component memoryBankController, int identity) {
 		mbc = memoryBankController;
+		this.identity = identity;
 	}
 
 	/**
-	 * Aide à contruire la cartouche. Premièrement, au moyen des flots d'entrées, en
-	 * lisant les octets contenus dans le fichier rom poun en faire une rom. La
-	 * méthode construit alors réellement la cartouche au moyen du constructeur
-	 * privé de la classe
+	 * Aide à contruire la cartouche. Premièrement, en projetant en mémoire le
+	 * fichier rom pour en faire une rom, partagée avec les autres cartouches
+	 * chargeant le même fichier. La méthode construit alors réellement la
+	 * cartouche au moyen du constructeur privé de la classe
 	 * 
 	 * @param romFile
 	 *            : ficher dont on va extraire les différents octets de la future
@@ -50,28 +62,62 @@ public final class Cartridge implements Component {
 	 *             n'existe pas
 	 */
 	public static Cartridge ofFile(File romFile) throws IOException {
+		return ofFile(romFile, true);
+	}
+
+	/**
+	 * Construit la cartouche dont la mémoire morte contient les octets du fichier
+	 * donné. Si la cartouche possède une mémoire vive alimentée par pile et que
+	 * batterySaves est vrai, cette mémoire est chargée depuis le fichier .sav situé
+	 * à côté de la rom (créé au besoin) et y est sauvegardée au fur et à mesure.
+	 * 
+	 * @param romFile
+	 *            : ficher dont on va extraire les différents octets de la future
+	 *            Rom
+	 * @param batterySaves
+	 *            : vrai ssi la mémoire vive alimentée par pile doit être
+	 *            sauvegardée dans un fichier
+	 * @return une cartouche dont la mémoire morte contient les octets du fichier
+	 *         donné
+	 * @throws IOException
+	 *             en en cas d'erreur d'entrée-sortie, y compris si le fichier donné
+	 *             n'existe pas
+	 */
+	public static Cartridge ofFile(File romFile, boolean batterySaves) throws IOException {
 		Objects.requireNonNull(romFile);
-		
-		byte[] romArray = new byte[(int) romFile.length()];
-		try (FileInputStream s = new FileInputStream(romFile)) {
-			int sumByteRead = 0;
-			while (sumByteRead < romArray.length) {
-				sumByteRead += s.read(romArray, sumByteRead, romArray.length - sumByteRead);
-			}
-		}
+
 		Component memoryBankController;
-		Rom rom = new Rom(romArray);
+		Rom rom = Rom.ofFile(romFile);
 		int type = rom.read(CARTRIDGE_TYPE_ADDRESS);
 
 		if (type == MBC0) {
 			Preconditions.checkArgument(rom.size() == MBC0_ROM_SIZE);
 			memoryBankController = new MBC0(rom);
-		} else if (type <= MAX_VALUE_MBC1)
-			memoryBankController = new MBC1(rom, RAM_SIZE[rom.read(RAM_SIZE_ADDRESS)]);
-		else
+		} else if (type <= MAX_VALUE_MBC1) {
+			Ram ram = new Ram(RAM_SIZE[rom.read(RAM_SIZE_ADDRESS)]);
+			BatteryBackup battery = (batterySaves && type == MBC1_RAM_BATTERY && ram.size() > 0)
+					? BatteryBackup.open(saveFileOf(romFile), ram)
+					: null;
+			memoryBankController = new MBC1(rom, ram, battery);
+		} else
 			throw new IllegalArgumentException();
 
-		return new Cartridge(memoryBankController);
+		int identity = (type << 24) | (rom.read(HEADER_CHECKSUM_ADDRESS) << 16)
+				| (rom.read(GLOBAL_CHECKSUM_ADDRESS) << 8) | rom.read(GLOBAL_CHECKSUM_ADDRESS + 1);
+		return new Cartridge(memoryBankController, identity);
+	}
+
+	/**
+	 * @param romFile
+	 *            : fichier de la rom
+	 * @return le fichier de sauvegarde associé à la rom, de même nom mais
+	 *         d'extension .sav
+	 */
+	private static File saveFileOf(File romFile) {
+		String name = romFile.getName();
+		if (name.endsWith(ROM_EXTENSION))
+			name = name.substring(0, name.length() - ROM_EXTENSION.length());
+		return new File(romFile.getAbsoluteFile().getParentFile(), name + SAVE_EXTENSION);
 	}
 
 	@Override
@@ -88,4 +134,75 @@ public final class Cartridge implements Component {
 		mbc.write(address, data);
 	}
 
+	/**
+	 * Définit l'auditeur informé des changements de banc de la mémoire morte, p.ex.
+	 * le processeur dont les instructions décodées en dépendent ; une cartouche
+	 * sans contrôleur de banc ne l'informe jamais
+	 * 
+	 * @param listener
+	 *            : auditeur à informer, ou null pour n'en informer aucun
+	 */
+	public void setRomSwitchListener(RomSwitchListener listener) {
+		if (mbc instanceof MBC1)
+			((MBC1) mbc).setRomSwitchListener(listener);
+	}
+
+	/**
+	 * @return un entier identifiant le jeu de la cartouche, formé de son type et
+	 *         des sommes de contrôle de l'en-tête de sa mémoire morte (octets
+	 *         14716, 14D16, 14E16 et 14F16)
+	 */
+	public int identity() {
+		return identity;
+	}
+
+	/**
+	 * @return une nouvelle cartouche dans le même état, partageant la mémoire morte
+	 *         de celle-ci et, jusqu'à leur modification, les pages de sa mémoire
+	 *         vive
+	 */
+	public Cartridge fork() {
+		// MBC0 n'a pas d'état modifiable et peut être partagé
+		return new Cartridge((mbc instanceof MBC1) ? ((MBC1) mbc).fork() : mbc, identity);
+	}
+
+	/**
+	 * Termine la sauvegarde de la mémoire vive alimentée par pile, s'il y en a
+	 * une : ses dernières modifications sont écrites dans le fichier .sav, qui
+	 * n'est plus modifié ensuite. La cartouche peut encore être utilisée.
+	 */
+	@Override
+	public void close() {
+		if (mbc instanceof MBC1)
+			((MBC1) mbc).close();
+	}
+
+	/**
+	 * Écrit l'état du contrôleur de banc de mémoire, s'il en a un (la mémoire
+	 * morte n'est pas sauvegardée)
+	 */
+	@Override
+	public void saveState(ByteBuffer buffer) {
+		if (mbc instanceof Stateful)
+			((Stateful) mbc).saveState(buffer);
+	}
+
+	@Override
+	public void loadState(ByteBuffer buffer) {
+		if (mbc instanceof Stateful)
+			((Stateful) mbc).loadState(buffer);
+	}
+
+	@Override
+	public void checkState(ByteBuffer buffer) {
+		if (mbc instanceof Stateful)
+			((Stateful) mbc).checkState(buffer);
+	}
+
+	@Override
+	public int[][] addressRanges() {
+		return new int[][] { { AddressMap.CARTRIDGE_ROM_START, AddressMap.CARTRIDGE_ROM_END },
+				{ AddressMap.CARTRIDGE_RAM_START, AddressMap.CARTRIDGE_RAM_END } };
+	}
+
 }
\ No newline at end of file
@@ -3,27 +3,41 @@ package ch.epfl.gameboj.component.cartridge;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+
+import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.RomSwitchListener;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
 
-public final class MBC1 implements Component {
+public final class MBC1 implements Component, Stateful, AutoCloseable {
     private static final int RAM_ENABLE = 0xA;
+    private static final int BANK_SIZE = 1 << 14;
 
     private enum Mode { MODE_0, MODE_1 };
 
     private final Rom rom;
     private final Ram ram;
+    private final BatteryBackup battery;
 
     private boolean ramEnabled;
     private Mode mode;
     private int romLsb5, ramRom2;
     private final int romMask, ramMask;
+    private RomSwitchListener romSwitchListener;
 
     public MBC1(Rom rom, int ramSize) {
+        this(rom, new Ram(ramSize), null);
+    }
+
+    public MBC1(Rom rom, Ram ram, BatteryBackup battery) {
+        int ramSize = ram.size();
         this.rom = rom;
-        this.ram = new Ram(ramSize);
+        this.ram = ram;
+        this.battery = battery;
 
         this.ramEnabled = false;
         this.mode = Mode.MODE_0;
@@ -47,9 +61,20 @@ public final class MBC1 implements Component {
         }
     }
 
+    /**
+     * Définit l'auditeur informé des changements de banc de la mémoire morte
+     *
+     * @param listener
+     *            : auditeur à informer, ou null pour n'en informer aucun
+     */
+    public void setRomSwitchListener(RomSwitchListener listener) {
+        romSwitchListener = listener;
+    }
+
     @Override
     public void write(int address, int data) {
         checkBits8(data);
+        int lowerBank = lowerBankAddress(), upperBank = upperBankAddress();
         switch (Bits.extract(checkBits16(address), 13, 3)) {
         case 0:
             ramEnabled = Bits.clip(4, data) == RAM_ENABLE;
@@ -64,10 +89,87 @@ public final class MBC1 implements Component {
             mode = Bits.test(data, 0) ? Mode.MODE_1 : Mode.MODE_0;
             break;
         case 5:
-            if (ramEnabled)
-                ram.write(ramAddress(address), data);
+            if (ramEnabled) {
+                int ramAddress = ramAddress(address);
+                ram.write(ramAddress, data);
+                if (battery != null)
+                    battery.written(ramAddress);
+            }
             break;
         }
+        if (romSwitchListener != null) {
+            if (lowerBankAddress() != lowerBank)
+                romSwitchListener.romSwitched(0, BANK_SIZE);
+            if (upperBankAddress() != upperBank)
+                romSwitchListener.romSwitched(BANK_SIZE, 2 * BANK_SIZE);
+        }
+    }
+
+    /**
+     * @return un nouveau contrôleur dans le même état, partageant la mémoire
+     *         morte et, jusqu'à leur modification, les pages de la mémoire vive ;
+     *         ses écritures ne sont pas sauvegardées dans le fichier .sav
+     */
+    public MBC1 fork() {
+        MBC1 fork = new MBC1(rom, ram.fork(), null);
+        fork.ramEnabled = ramEnabled;
+        fork.mode = mode;
+        fork.romLsb5 = romLsb5;
+        fork.ramRom2 = ramRom2;
+        return fork;
+    }
+
+    /**
+     * Termine la sauvegarde de la mémoire vive dans le fichier .sav, s'il y en
+     * a une, après y avoir recopié ses dernières modifications
+     */
+    @Override
+    public void close() {
+        if (battery != null)
+            battery.close();
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (ramEnabled ? 1 : 0)).put((byte) mode.ordinal());
+        buffer.put((byte) romLsb5).put((byte) ramRom2);
+        ram.saveState(buffer);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        ramEnabled = buffer.get() != 0;
+        int mode = Byte.toUnsignedInt(buffer.get());
+        int romLsb5 = Byte.toUnsignedInt(buffer.get());
+        int ramRom2 = Byte.toUnsignedInt(buffer.get());
+        checkBanks(mode, romLsb5, ramRom2);
+        this.mode = Mode.values()[mode];
+        this.romLsb5 = romLsb5;
+        this.ramRom2 = ramRom2;
+        ram.loadState(buffer);
+        if (battery != null)
+            battery.allWritten();
+    }
+
+    @Override
+    public void checkState(ByteBuffer buffer) {
+        Stateful.skip(buffer, Byte.BYTES);
+        checkBanks(Byte.toUnsignedInt(buffer.get()), Byte.toUnsignedInt(buffer.get()),
+                Byte.toUnsignedInt(buffer.get()));
+        ram.checkState(buffer);
+    }
+
+    /**
+     * Vérifie que le mode et les numéros de banc donnés sont ceux que les
+     * écritures dans les registres du contrôleur peuvent produire
+     *
+     * @throws IllegalArgumentException
+     *             si l'une des valeurs n'est pas valide
+     */
+    private static void checkBanks(int mode, int romLsb5, int ramRom2) {
+        Preconditions.checkArgument(mode < Mode.values().length);
+        Preconditions.checkArgument(1 <= romLsb5 && romLsb5 <= 31);
+        Preconditions.checkArgument(ramRom2 <= 3);
     }
 
     private int msb2() {
@@ -78,6 +180,14 @@ public final class MBC1 implements Component {
         }
     }
 
+    private int lowerBankAddress() {
+        return romAddress(msb2(), 0, 0);
+    }
+
+    private int upperBankAddress() {
+        return romAddress(ramRom2, romLsb5, 0);
+    }
+
     private int romAddress(int b_20_19, int b_18_14, int b_13_0) {
         return ((b_20_19 << 19) | (b_18_14 << 14) | Bits.clip(14, b_13_0)) & romMask;
     }
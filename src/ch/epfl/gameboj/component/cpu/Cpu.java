@@ -1,5 +1,9 @@
 package ch.epfl.gameboj.component.cpu;
 
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
@@ -9,11 +13,13 @@ import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.RomSwitchListener;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.cpu.Alu.Flag;
 import ch.epfl.gameboj.component.cpu.Opcode;
 import ch.epfl.gameboj.component.memory.Ram;
 
-public final class Cpu implements Component, Clocked {
+public final class Cpu implements Component, Clocked, Stateful, RomSwitchListener {
 
 	/**
 	 * Type énuméré correspondant aux différents registres simples du processeur
@@ -59,6 +65,54 @@ public final class Cpu implements Component, Clocked {
 		NZ, Z, NC, C
 	}
 
+	/**
+	 * Instruction décodée une fois pour toutes : son opcode, les registres désignés
+	 * par son encodage et ses valeurs immédiates sont extraits au décodage, afin de
+	 * ne pas devoir les recalculer à chaque exécution.
+	 */
+	private static final class Instruction {
+		private final Opcode opcode;
+		private final Reg reg0, reg3;
+		private final Reg16 reg16;
+		private final int n8, n16;
+		// vrai ssi l'instruction n'accède qu'aux registres (et au compteur de programme)
+		private final boolean registerOnly;
+		// vrai ssi l'instruction lit la mémoire sans y écrire
+		private final boolean memoryReadOnly;
+		// génération de la page mémoire au moment du décodage
+		private final long generation;
+
+		/**
+		 * Construit l'instruction décodée
+		 * 
+		 * @param opcode
+		 *            : opcode de l'instruction
+		 * @param reg0
+		 *            : registre 8 bits encodé dans les bits 0 à 2 de l'opcode
+		 * @param reg3
+		 *            : registre 8 bits encodé dans les bits 3 à 5 de l'opcode
+		 * @param reg16
+		 *            : paire de registres encodée dans les bits 4 et 5 de l'opcode
+		 * @param n8
+		 *            : valeur 8 bits suivant l'opcode
+		 * @param n16
+		 *            : valeur 16 bits suivant l'opcode
+		 * @param generation
+		 *            : génération de la page contenant l'instruction
+		 */
+		private Instruction(Opcode opcode, Reg reg0, Reg reg3, Reg16 reg16, int n8, int n16, long generation) {
+			this.opcode = opcode;
+			this.reg0 = reg0;
+			this.reg3 = reg3;
+			this.reg16 = reg16;
+			this.n8 = n8;
+			this.n16 = n16;
+			this.generation = generation;
+			this.registerOnly = REGISTER_ONLY_FAMILIES.contains(opcode.family);
+			this.memoryReadOnly = MEMORY_READ_ONLY_FAMILIES.contains(opcode.family);
+		}
+	}
+
 	private static final Opcode[] DIRECT_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.DIRECT);
 	private static final Opcode[] PREFIXED_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.PREFIXED);
 	private static final Reg[][] register_16_TO_register_8 = { { Reg.A, Reg.F }, { Reg.B, Reg.C }, { Reg.D, Reg.E },
@@ -67,6 +121,29 @@ public final class Cpu implements Component, Clocked {
 	private static final Reg16[] BINARY_TO_register_16 = { Reg16.BC, Reg16.DE, Reg16.HL, Reg16.AF };
 	private static final Condition[] BINARY_TO_CONDITION = { Condition.NZ, Condition.Z, Condition.NC, Condition.C };
 	private static final int PREFIX = 0xCB;
+	private static final Set<Opcode.Family> BLOCK_END_FAMILIES = EnumSet.of(Opcode.Family.JP_HL,
+			Opcode.Family.JP_N16, Opcode.Family.JP_CC_N16, Opcode.Family.JR_E8, Opcode.Family.JR_CC_E8,
+			Opcode.Family.CALL_N16, Opcode.Family.CALL_CC_N16, Opcode.Family.RST_U3, Opcode.Family.RET,
+			Opcode.Family.RET_CC, Opcode.Family.RETI, Opcode.Family.HALT, Opcode.Family.STOP);
+	private static final Set<Opcode.Family> REGISTER_ONLY_FAMILIES = EnumSet.of(Opcode.Family.NOP,
+			Opcode.Family.LD_R8_N8, Opcode.Family.LD_R16SP_N16, Opcode.Family.LD_R8_R8, Opcode.Family.LD_SP_HL,
+			Opcode.Family.ADD_A_R8, Opcode.Family.ADD_A_N8, Opcode.Family.INC_R8, Opcode.Family.INC_R16SP,
+			Opcode.Family.ADD_HL_R16SP, Opcode.Family.LD_HLSP_S8, Opcode.Family.SUB_A_R8, Opcode.Family.SUB_A_N8,
+			Opcode.Family.DEC_R8, Opcode.Family.CP_A_R8, Opcode.Family.CP_A_N8, Opcode.Family.DEC_R16SP,
+			Opcode.Family.AND_A_N8, Opcode.Family.AND_A_R8, Opcode.Family.OR_A_R8, Opcode.Family.OR_A_N8,
+			Opcode.Family.XOR_A_R8, Opcode.Family.XOR_A_N8, Opcode.Family.ROTCA, Opcode.Family.ROTA,
+			Opcode.Family.ROTC_R8, Opcode.Family.ROT_R8, Opcode.Family.SWAP_R8, Opcode.Family.SLA_R8,
+			Opcode.Family.SRA_R8, Opcode.Family.SRL_R8, Opcode.Family.BIT_U3_R8, Opcode.Family.CHG_U3_R8,
+			Opcode.Family.DAA, Opcode.Family.CPL, Opcode.Family.SCCF, Opcode.Family.JP_HL, Opcode.Family.JP_N16,
+			Opcode.Family.JP_CC_N16, Opcode.Family.JR_E8, Opcode.Family.JR_CC_E8);
+	private static final Set<Opcode.Family> MEMORY_READ_ONLY_FAMILIES = EnumSet.of(Opcode.Family.LD_R8_HLR,
+			Opcode.Family.LD_A_HLRU, Opcode.Family.LD_A_N8R, Opcode.Family.LD_A_CR, Opcode.Family.LD_A_N16R,
+			Opcode.Family.LD_A_BCR, Opcode.Family.LD_A_DER, Opcode.Family.POP_R16, Opcode.Family.ADD_A_HLR,
+			Opcode.Family.SUB_A_HLR, Opcode.Family.CP_A_HLR, Opcode.Family.AND_A_HLR, Opcode.Family.OR_A_HLR,
+			Opcode.Family.XOR_A_HLR, Opcode.Family.BIT_U3_HLR, Opcode.Family.RET, Opcode.Family.RET_CC);
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int NUMBER_OF_PAGES = 1 << (Short.SIZE - PAGE_BITS);
 	private Bus bus;
 	private final RegisterFile<Reg> registerFile;
 	private final Ram highRam;
@@ -76,6 +153,16 @@ public final class Cpu implements Component, Clocked {
 	private int currentValueInterrupt;
 	private int IE, IF;
 	private boolean IME;
+	// instructions déjà décodées, par page de 256 octets, et génération de chaque
+	// page (incrémentée à chaque écriture susceptible de modifier son contenu)
+	private final Instruction[][] decodedPages;
+	private final long[] pageGenerations;
+	// début de la boucle en cours de détection lors de l'exécution anticipée :
+	// adresse, état des registres et cycle lors du dernier passage
+	private int loopPC;
+	private int loopSP;
+	private long loopRegisters;
+	private long loopCycle;
 
 	/**
 	 * construit le CPU
@@ -86,12 +173,20 @@ public final class Cpu implements Component, Clocked {
 		SP = 0;
 		PC = 0;
 		nextPC = 0;
+		decodedPages = new Instruction[NUMBER_OF_PAGES][];
+		pageGenerations = new long[NUMBER_OF_PAGES];
 	}
 
+	/**
+	 * Attache le processeur au bus, et l'inscrit comme observateur de toutes les
+	 * écritures sur celui-ci, quel qu'en soit l'auteur, afin d'invalider les
+	 * instructions décodées qu'elles modifient
+	 */
 	@Override
 	public void attachTo(Bus bus) {
 		this.bus = bus;
 		this.bus.attach(this);
+		this.bus.setWriteObserver(this::invalidateDecoded);
 	}
 
 	@Override
@@ -122,6 +217,67 @@ public final class Cpu implements Component, Clocked {
 
 	}
 
+	@Override
+	public int[][] addressRanges() {
+		return new int[][] { { AddressMap.REG_IF, AddressMap.REG_IF + 1 },
+				{ AddressMap.HIGH_RAM_START, AddressMap.REG_IE + 1 } };
+	}
+
+	/**
+	 * Remplace l'état du processeur par celui du processeur donné, sa mémoire
+	 * vive partageant ses pages avec celle de l'autre jusqu'à leur modification
+	 * 
+	 * @param that
+	 *            : processeur à copier, non null
+	 */
+	public void copyFrom(Cpu that) {
+		for (Reg r : Reg.values())
+			registerFile.set(r, that.registerFile.get(r));
+		SP = that.SP;
+		PC = that.PC;
+		IME = that.IME;
+		IE = that.IE;
+		IF = that.IF;
+		nextNonIdleCycle = that.nextNonIdleCycle;
+		highRam.copyFrom(that.highRam);
+		for (int page = 0; page < NUMBER_OF_PAGES; ++page)
+			++pageGenerations[page];
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+		for (Reg r : Reg.values())
+			buffer.put((byte) registerFile.get(r));
+		buffer.putShort((short) SP).putShort((short) PC);
+		buffer.put((byte) (IME ? 1 : 0)).put((byte) IE).put((byte) IF);
+		buffer.putLong(nextNonIdleCycle);
+		highRam.saveState(buffer);
+	}
+
+	@Override
+	public void loadState(ByteBuffer buffer) {
+		for (Reg r : Reg.values())
+			registerFile.set(r, Byte.toUnsignedInt(buffer.get()));
+		SP = Short.toUnsignedInt(buffer.getShort());
+		PC = Short.toUnsignedInt(buffer.getShort());
+		IME = buffer.get() != 0;
+		IE = Byte.toUnsignedInt(buffer.get());
+		IF = Byte.toUnsignedInt(buffer.get());
+		nextNonIdleCycle = buffer.getLong();
+		highRam.loadState(buffer);
+		// la mémoire a pu changer entièrement : toutes les instructions décodées sont
+		// invalidées
+		for (int page = 0; page < NUMBER_OF_PAGES; ++page)
+			++pageGenerations[page];
+	}
+
+	@Override
+	public void checkState(ByteBuffer buffer) {
+		Stateful.skip(buffer, Reg.values().length + 2 * Short.BYTES + 3 * Byte.BYTES);
+		Preconditions.checkArgument(buffer.getLong() >= 0);
+		highRam.checkState(buffer);
+	}
+
 	@Override
 	public void cycle(long cycle) {
 		if (nextNonIdleCycle == Long.MAX_VALUE && testInterrupt())
@@ -130,6 +286,13 @@ public final class Cpu implements Component, Clocked {
 			reallyCycle(cycle);
 	}
 
+	@Override
+	public long nextEventCycle(long cycle) {
+		if (nextNonIdleCycle == Long.MAX_VALUE)
+			return testInterrupt() ? cycle : Long.MAX_VALUE;
+		return nextNonIdleCycle;
+	}
+
 	/**
 	 * regarde si les interruptions sont activées (c-à-d si IME est vrai) et si une
 	 * interruption est en attente, auquel cas elle la gère ; sinon, elle exécute
@@ -139,16 +302,118 @@ public final class Cpu implements Component, Clocked {
 		if (IME && testInterrupt()) {
 			interruptGestion(); // gère les interruptions
 		} else {
-			int instruction = read8(PC);
-			Opcode opcode = (instruction == PREFIX) ? PREFIXED_OPCODE_TABLE[read8(PC + 1)]
-					: DIRECT_OPCODE_TABLE[instruction];
-			nextPC = PC + opcode.totalBytes;
-			nextNonIdleCycle += opcode.cycles;
-			dispatch(opcode);
-			PC = nextPC;
+			execute(instructionAt(PC));
 		}
 	}
 
+	/**
+	 * Exécute d'avance, sans attendre que les cycles correspondants soient simulés,
+	 * les instructions qui suivent et qui n'écrivent que dans les registres, tant
+	 * qu'elles débutent avant le cycle donné et qu'aucune interruption n'est à
+	 * gérer. Une telle instruction n'étant pas observable par les autres
+	 * composants, le résultat est identique à une exécution cycle par cycle pour
+	 * autant qu'aucun autre composant n'ait de travail à effectuer avant ce cycle.
+	 * 
+	 * Jusqu'à ce cycle, la mémoire lue ne peut pas changer : une boucle d'attente
+	 * (p.ex. sur LY ou IF) qui repasse par son début avec des registres identiques
+	 * se répète donc à l'identique, et toutes ses itérations se terminant avant ce
+	 * cycle sont sautées d'un coup.
+	 * 
+	 * @param horizon
+	 *            : cycle avant lequel aucun autre composant n'a de travail à
+	 *            effectuer
+	 */
+	public void runAhead(long horizon) {
+		loopPC = -1;
+		while (nextNonIdleCycle < horizon && !(IME && testInterrupt()) && isCacheable(PC)) {
+			Instruction instruction = instructionAt(PC);
+			if (!instruction.registerOnly && !(instruction.memoryReadOnly && isStable(memoryReadAddress(instruction))))
+				return;
+
+			int previousPC = PC;
+			execute(instruction);
+			if (PC <= previousPC)
+				skipIdleLoop(horizon);
+		}
+	}
+
+	/**
+	 * Appelée lors de l'exécution anticipée après un saut en arrière : si le
+	 * processeur se trouve dans le même état que lors du dernier passage à cette
+	 * adresse, saute toutes les itérations de la boucle se terminant avant le cycle
+	 * donné ; sinon, mémorise l'état courant comme début de boucle.
+	 * 
+	 * @param horizon
+	 *            : cycle avant lequel aucun autre composant n'a de travail à
+	 *            effectuer
+	 */
+	private void skipIdleLoop(long horizon) {
+		long registers = ((long) reg16(Reg16.AF) << 48) | ((long) reg16(Reg16.BC) << 32)
+				| ((long) reg16(Reg16.DE) << 16) | reg16(Reg16.HL);
+		if (PC == loopPC && SP == loopSP && registers == loopRegisters) {
+			long period = nextNonIdleCycle - loopCycle;
+			nextNonIdleCycle += (horizon - nextNonIdleCycle) / period * period;
+			loopPC = -1;
+		} else {
+			loopPC = PC;
+			loopSP = SP;
+			loopRegisters = registers;
+			loopCycle = nextNonIdleCycle;
+		}
+	}
+
+	/**
+	 * @param instruction
+	 *            : instruction lisant la mémoire sans y écrire
+	 * @return l'adresse du premier octet lu par l'instruction donnée, dans l'état
+	 *         courant des registres
+	 */
+	private int memoryReadAddress(Instruction instruction) {
+		switch (instruction.opcode.family) {
+		case LD_A_N8R:
+			return AddressMap.REGS_START + instruction.n8;
+		case LD_A_CR:
+			return AddressMap.REGS_START + registerFile.get(Reg.C);
+		case LD_A_N16R:
+			return instruction.n16;
+		case LD_A_BCR:
+			return reg16(Reg16.BC);
+		case LD_A_DER:
+			return reg16(Reg16.DE);
+		case POP_R16:
+		case RET:
+		case RET_CC:
+			return SP;
+		default:
+			return reg16(Reg16.HL);
+		}
+	}
+
+	/**
+	 * @param address
+	 *            : adresse du premier octet lu
+	 * @return vrai ssi les (au plus deux) octets débutant à l'adresse donnée ne
+	 *         changent qu'au cours d'un cycle où leur composant a du travail ; ce
+	 *         n'est pas le cas des compteurs du minuteur, évalués paresseusement
+	 */
+	private static boolean isStable(int address) {
+		return (address < AddressMap.REG_DIV - 1 || address > AddressMap.REG_TIMA);
+	}
+
+	/**
+	 * Exécute l'instruction décodée donnée et avance le compteur de programme et le
+	 * prochain cycle d'activité en conséquence
+	 * 
+	 * @param instruction
+	 *            : instruction à exécuter
+	 */
+	private void execute(Instruction instruction) {
+		nextPC = PC + instruction.opcode.totalBytes;
+		nextNonIdleCycle += instruction.opcode.cycles;
+		dispatch(instruction);
+		PC = nextPC;
+	}
+
 	/**
 	 * indentifie si une interruption est en attente et la traite si c'est le cas
 	 */
@@ -201,18 +466,144 @@ public final class Cpu implements Component, Clocked {
 	}
 
 	/**
-	 * étant donné un octet contenant un opcode, exécute l'instruction
-	 * correspondante — en lisant ou écrivant, au besoin, des valeurs depuis le bus
-	 * ou les registres.
+	 * Retourne l'instruction débutant à l'adresse donnée, en la prenant dans le
+	 * cache des instructions décodées si elle s'y trouve et que sa page n'a pas été
+	 * modifiée depuis ; sinon, décode la suite d'instructions en ligne droite
+	 * débutant à cette adresse.
+	 * 
+	 * @param address
+	 *            : adresse de l'instruction
+	 * @return l'instruction décodée
+	 */
+	private Instruction instructionAt(int address) {
+		int page = address >>> PAGE_BITS;
+		Instruction[] decoded = decodedPages[page];
+		if (decoded != null) {
+			Instruction instruction = decoded[address & (PAGE_SIZE - 1)];
+			if (instruction != null && instruction.generation == pageGenerations[page])
+				return instruction;
+		}
+		return isCacheable(address) ? decodeBlock(address) : decode(address, false);
+	}
+
+	/**
+	 * Décode la suite d'instructions débutant à l'adresse donnée, jusqu'à la
+	 * première instruction de saut, d'appel ou de retour (incluse), ou jusqu'à la
+	 * fin de la page, et les place dans le cache.
+	 * 
+	 * @param address
+	 *            : adresse de la première instruction, dans une zone dont le contenu
+	 *            n'est modifié que par le processeur
+	 * @return la première instruction du bloc
+	 */
+	private Instruction decodeBlock(int address) {
+		int page = address >>> PAGE_BITS;
+		if (decodedPages[page] == null)
+			decodedPages[page] = new Instruction[PAGE_SIZE];
+		Instruction[] decoded = decodedPages[page];
+
+		Instruction first = decode(address, false);
+		Instruction instruction = first;
+		while (instruction != null && (address + instruction.opcode.totalBytes - 1) >>> PAGE_BITS == page) {
+			decoded[address & (PAGE_SIZE - 1)] = instruction;
+			address += instruction.opcode.totalBytes;
+			if (BLOCK_END_FAMILIES.contains(instruction.opcode.family) || address >>> PAGE_BITS != page)
+				break;
+			Instruction next = decoded[address & (PAGE_SIZE - 1)];
+			if (next != null && next.generation == pageGenerations[page])
+				break;
+			// les octets suivants peuvent être des données : on s'arrête sur un opcode
+			// invalide au lieu de lever une exception
+			instruction = decode(address, true);
+		}
+		return first;
+	}
+
+	/**
+	 * Décode l'instruction se trouvant à l'adresse donnée
+	 * 
+	 * @param address
+	 *            : adresse de l'instruction
+	 * @param lenient
+	 *            : vrai ssi un opcode invalide doit être signalé en retournant
+	 *            null plutôt qu'en levant une exception
+	 * @return l'instruction décodée, ou null si l'opcode est invalide et que
+	 *         lenient est vrai
+	 * @throws IllegalStateException
+	 *             si l'opcode est invalide et que lenient est faux
+	 */
+	private Instruction decode(int address, boolean lenient) {
+		int encoding = read8(address);
+		boolean prefixed = encoding == PREFIX;
+		Opcode opcode = prefixed ? PREFIXED_OPCODE_TABLE[read8(address + 1)] : DIRECT_OPCODE_TABLE[encoding];
+		if (opcode == null) {
+			if (lenient)
+				return null;
+			throw new IllegalStateException(String.format("invalid opcode %02X at PC=%04X", encoding, address));
+		}
+
+		int immediateBytes = opcode.totalBytes - (prefixed ? 2 : 1);
+		int n8 = (immediateBytes >= 1) ? read8(address + 1) : 0;
+		int n16 = (immediateBytes == 2) ? Bits.make16(read8(address + 2), n8) : 0;
+		return new Instruction(opcode, extractReg(opcode, 0), extractReg(opcode, 3), extractReg16(opcode), n8, n16,
+				pageGenerations[address >>> PAGE_BITS]);
+	}
+
+	/**
+	 * Teste si l'instruction débutant à l'adresse donnée peut être placée dans le
+	 * cache, c-à-d si son contenu ne peut être modifié que par une écriture du
+	 * processeur : mémoire morte de la cartouche, mémoire de travail et mémoire
+	 * haute.
+	 * 
+	 * @param address
+	 *            : adresse de l'instruction
+	 * @return vrai ssi l'instruction peut être placée dans le cache
 	 */
-	private void dispatch(Opcode o) {
+	private static boolean isCacheable(int address) {
+		return address < AddressMap.CARTRIDGE_ROM_END
+				|| (address >= AddressMap.WORK_RAM_START && address < AddressMap.WORK_RAM_END)
+				|| (address >= AddressMap.HIGH_RAM_START && address < AddressMap.HIGH_RAM_END);
+	}
+
+	/**
+	 * Invalide les instructions décodées dont le contenu peut avoir été modifié par
+	 * une écriture sur le bus à l'adresse donnée. Une écriture dans la zone de la
+	 * mémoire morte n'en modifie pas le contenu : les changements de banc sont
+	 * signalés par la cartouche au travers de romSwitched.
+	 * 
+	 * @param address
+	 *            : adresse de l'écriture
+	 */
+	private void invalidateDecoded(int address) {
+		if (address >= AddressMap.ECHO_RAM_START && address < AddressMap.ECHO_RAM_END)
+			++pageGenerations[(address - AddressMap.ECHO_RAM_START + AddressMap.WORK_RAM_START) >>> PAGE_BITS];
+		else if (address >= AddressMap.CARTRIDGE_ROM_END)
+			++pageGenerations[address >>> PAGE_BITS];
+	}
+
+	/**
+	 * Invalide les instructions décodées de toutes les pages de la zone donnée de
+	 * la mémoire morte, dont le contenu visible vient de changer
+	 */
+	@Override
+	public void romSwitched(int start, int end) {
+		for (int page = start >>> PAGE_BITS; page <= (end - 1) >>> PAGE_BITS; ++page)
+			++pageGenerations[page];
+	}
+
+	/**
+	 * étant donné une instruction décodée, exécute l'instruction correspondante —
+	 * en lisant ou écrivant, au besoin, des valeurs depuis le bus ou les registres.
+	 */
+	private void dispatch(Instruction instruction) {
+		Opcode o = instruction.opcode;
 
 		switch (o.family) {
 		case NOP: {
 		}
 			break;
 		case LD_R8_HLR: {
-			Reg r = extractReg(o, 3);
+			Reg r = instruction.reg3;
 			loadToRegister(r, Reg16.HL);
 		}
 			break;
@@ -224,7 +615,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case LD_A_N8R: {
-			loadToRegister(Reg.A, AddressMap.REGS_START + read8AfterOpcode());
+			loadToRegister(Reg.A, AddressMap.REGS_START + instruction.n8);
 		}
 			break;
 		case LD_A_CR: {
@@ -232,7 +623,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case LD_A_N16R: {
-			loadToRegister(Reg.A, read16AfterOpcode());
+			loadToRegister(Reg.A, instruction.n16);
 		}
 			break;
 		case LD_A_BCR: {
@@ -244,22 +635,22 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case LD_R8_N8: {
-			Reg r = extractReg(o, 3);
-			registerFile.set(r, read8AfterOpcode());
+			Reg r = instruction.reg3;
+			registerFile.set(r, instruction.n8);
 		}
 			break;
 		case LD_R16SP_N16: {
-			Reg16 r = extractReg16(o);
-			setReg16SP(r, read16AfterOpcode());
+			Reg16 r = instruction.reg16;
+			setReg16SP(r, instruction.n16);
 		}
 			break;
 		case POP_R16: {
-			Reg16 r = extractReg16(o);
+			Reg16 r = instruction.reg16;
 			setReg16(r, pop16());
 		}
 			break;
 		case LD_HLR_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			loadToBusAddress(r, Reg16.HL);
 		}
 			break;
@@ -270,7 +661,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case LD_N8R_A: {
-			loadToBusAddress(Reg.A, AddressMap.REGS_START + read8AfterOpcode());
+			loadToBusAddress(Reg.A, AddressMap.REGS_START + instruction.n8);
 		}
 			break;
 		case LD_CR_A: {
@@ -278,7 +669,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case LD_N16R_A: {
-			loadToBusAddress(Reg.A, read16AfterOpcode());
+			loadToBusAddress(Reg.A, instruction.n16);
 		}
 			break;
 		case LD_BCR_A: {
@@ -290,16 +681,16 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case LD_HLR_N8: {
-			write8AtHl(read8AfterOpcode());
+			write8AtHl(instruction.n8);
 		}
 			break;
 		case LD_N16R_SP: {
-			write16(read16AfterOpcode(), SP);
+			write16(instruction.n16, SP);
 		}
 			break;
 		case LD_R8_R8: {
-			Reg r = extractReg(o, 3);
-			Reg s = extractReg(o, 0);
+			Reg r = instruction.reg3;
+			Reg s = instruction.reg0;
 			if (r != s)
 				registerFile.set(r, registerFile.get(s));
 		}
@@ -309,20 +700,20 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case PUSH_R16: {
-			Reg16 r = extractReg16(o);
+			Reg16 r = instruction.reg16;
 			push16(reg16(r));
 		}
 			break;
 
 		// Add
 		case ADD_A_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			int value = Alu.add(registerFile.get(r), registerFile.get(Reg.A), addSubCarry(o));
 			setRegFlags(Reg.A, value);
 		}
 			break;
 		case ADD_A_N8: {
-			int value = Alu.add(registerFile.get(Reg.A), read8AfterOpcode(), addSubCarry(o));
+			int value = Alu.add(registerFile.get(Reg.A), instruction.n8, addSubCarry(o));
 			setRegFlags(Reg.A, value);
 		}
 			break;
@@ -333,7 +724,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case INC_R8: {
-			Reg r = extractReg(o, 3);
+			Reg r = instruction.reg3;
 			int value = Alu.add(registerFile.get(r), 1);
 			setRegCombineAluFlags(r, value, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
 		}
@@ -345,21 +736,21 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case INC_R16SP: {
-			Reg16 r = extractReg16(o);
+			Reg16 r = instruction.reg16;
 			int value = (r == Reg16.AF) ? Alu.add16H(SP, 1) : Alu.add16H(reg16(r), 1);
 			setReg16SP(r, Alu.unpackValue(value));
 
 		}
 			break;
 		case ADD_HL_R16SP: {
-			Reg16 r = extractReg16(o);
+			Reg16 r = instruction.reg16;
 			int value = (r == Reg16.AF) ? Alu.add16H(reg16(Reg16.HL), SP) : Alu.add16H(reg16(Reg16.HL), reg16(r));
 			combineAluFlags(value, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
 			setReg16SP(Reg16.HL, Alu.unpackValue(value));
 		}
 			break;
 		case LD_HLSP_S8: {
-			int value = Alu.add16L(SP, Bits.clip(16, Bits.signExtend8(read8AfterOpcode())));
+			int value = Alu.add16L(SP, Bits.clip(16, Bits.signExtend8(instruction.n8)));
 			setFlags(value);
 			value = Alu.unpackValue(value);
 			if (Bits.test(o.encoding, 4))
@@ -371,12 +762,12 @@ public final class Cpu implements Component, Clocked {
 
 		// Subtract
 		case SUB_A_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			setRegFlags(Reg.A, Alu.sub(registerFile.get(Reg.A), registerFile.get(r), addSubCarry(o)));
 		}
 			break;
 		case SUB_A_N8: {
-			setRegFlags(Reg.A, Alu.sub(registerFile.get(Reg.A), read8AfterOpcode(), addSubCarry(o)));
+			setRegFlags(Reg.A, Alu.sub(registerFile.get(Reg.A), instruction.n8, addSubCarry(o)));
 		}
 			break;
 		case SUB_A_HLR: {
@@ -384,7 +775,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case DEC_R8: {
-			Reg r = extractReg(o, 3);
+			Reg r = instruction.reg3;
 			int value = Alu.sub(registerFile.get(r), 1);
 			setRegCombineAluFlags(r, value, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
 		}
@@ -396,13 +787,13 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case CP_A_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			int value = Alu.sub(registerFile.get(Reg.A), registerFile.get(r));
 			setFlags(value);
 		}
 			break;
 		case CP_A_N8: {
-			int value = Alu.sub(registerFile.get(Reg.A), read8AfterOpcode());
+			int value = Alu.sub(registerFile.get(Reg.A), instruction.n8);
 			setFlags(value);
 		}
 			break;
@@ -412,7 +803,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case DEC_R16SP: {
-			Reg16 r = extractReg16(o);
+			Reg16 r = instruction.reg16;
 			int value = (r == Reg16.AF) ? SP : reg16(r);
 			setReg16SP(r, Bits.clip(16, --value));
 
@@ -421,11 +812,11 @@ public final class Cpu implements Component, Clocked {
 
 		// And, or, xor, complement
 		case AND_A_N8: {
-			ANDandStoreInRegA(read8AfterOpcode());
+			ANDandStoreInRegA(instruction.n8);
 		}
 			break;
 		case AND_A_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			ANDandStoreInRegA(registerFile.get(r));
 		}
 			break;
@@ -434,12 +825,12 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case OR_A_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			ORandStoreInRegA(registerFile.get(r));
 		}
 			break;
 		case OR_A_N8: {
-			ORandStoreInRegA(read8AfterOpcode());
+			ORandStoreInRegA(instruction.n8);
 		}
 			break;
 		case OR_A_HLR: {
@@ -447,12 +838,12 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case XOR_A_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			XORandStoreInRegA(registerFile.get(r));
 		}
 			break;
 		case XOR_A_N8: {
-			XORandStoreInRegA(read8AfterOpcode());
+			XORandStoreInRegA(instruction.n8);
 
 		}
 			break;
@@ -481,13 +872,13 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case ROTC_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			int v = registerFile.get(r);
 			setRegFlags(r, Alu.rotate(extractRotDir(o), v));
 		}
 			break;
 		case ROT_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			int v = registerFile.get(r);
 			setRegFlags(r, Alu.rotate(extractRotDir(o), v, registerFile.testBit(Reg.F, Alu.Flag.C)));
 		}
@@ -505,7 +896,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case SWAP_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			setRegFlags(r, Alu.swap(registerFile.get(r)));
 		}
 			break;
@@ -515,17 +906,17 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case SLA_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			setRegFlags(r, Alu.shiftLeft(registerFile.get(r)));
 		}
 			break;
 		case SRA_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			setRegFlags(r, Alu.shiftRightA(registerFile.get(r)));
 		}
 			break;
 		case SRL_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			setRegFlags(r, Alu.shiftRightL(registerFile.get(r)));
 		}
 			break;
@@ -548,7 +939,7 @@ public final class Cpu implements Component, Clocked {
 		// Bit test and set
 		case BIT_U3_R8: {
 			int n = extractN3Index(o);
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			testAndStoreBIT(registerFile.get(r), n);
 		}
 			break;
@@ -558,7 +949,7 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case CHG_U3_R8: {
-			Reg r = extractReg(o, 0);
+			Reg r = instruction.reg0;
 			int v = valueOfCHG(o, registerFile.get(r));
 			registerFile.set(r, v);
 		}
@@ -590,26 +981,26 @@ public final class Cpu implements Component, Clocked {
 		}
 			break;
 		case JP_N16: {
-			nextPC = read16AfterOpcode();
+			nextPC = instruction.n16;
 
 		}
 			break;
 
 		case JP_CC_N16: {
 			if (extractConditionAndTest(o)) {
-				nextPC = read16AfterOpcode();
+				nextPC = instruction.n16;
 				nextNonIdleCycle += o.additionalCycles;
 			}
 		}
 			break;
 		case JR_E8: {
-			nextPC += Bits.signExtend8(read8AfterOpcode());
+			nextPC += Bits.signExtend8(instruction.n8);
 		}
 
 			break;
 		case JR_CC_E8: {
 			if (extractConditionAndTest(o)) {
-				nextPC += Bits.signExtend8(read8AfterOpcode());
+				nextPC += Bits.signExtend8(instruction.n8);
 				nextNonIdleCycle += o.additionalCycles;
 			}
 		}
@@ -618,13 +1009,13 @@ public final class Cpu implements Component, Clocked {
 		// Calls and returns
 		case CALL_N16: {
 			push16(nextPC);
-			nextPC = read16AfterOpcode();
+			nextPC = instruction.n16;
 		}
 			break;
 		case CALL_CC_N16: {
 			if (extractConditionAndTest(o)) {
 				push16(nextPC);
-				nextPC = read16AfterOpcode();
+				nextPC = instruction.n16;
 				nextNonIdleCycle += o.additionalCycles;
 			}
 		}
@@ -808,14 +1199,6 @@ public final class Cpu implements Component, Clocked {
 		return read8(reg16(Reg16.HL));
 	}
 
-	/**
-	 * @return la valeur 8 bits à l'adresse suivant celle contenue dans le compteur
-	 *         de programme, c-à-d à l'adresse PC+1,
-	 */
-	private int read8AfterOpcode() {
-		return read8(PC + 1);
-	}
-
 	/**
 	 * Retourne la valeur 16 bits contenue à l'adresse donnée (et à l'addresse
 	 * suivante),
@@ -828,14 +1211,6 @@ public final class Cpu implements Component, Clocked {
 		return Bits.make16(bus.read(address + 1), bus.read(address));
 	}
 
-	/**
-	 * @return la valeur 16 bits à l'adresse suivant celle contenue dans le compteur
-	 *         de programme, c-à-d à l'adresse PC+1,
-	 */
-	private int read16AfterOpcode() {
-		return read16(PC + 1);
-	}
-
 	/**
 	 * Écrit sur le bus, à l'adresse donnée, la valeur 8 bits donnée,
 	 * 
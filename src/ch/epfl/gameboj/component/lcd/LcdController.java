@@ -1,8 +1,13 @@
 package ch.epfl.gameboj.component.lcd;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ch.epfl.gameboj.AddressMap;
 import static ch.epfl.gameboj.AddressMap.*;
@@ -11,21 +16,20 @@ import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
 import ch.epfl.gameboj.bits.Bit;
-import ch.epfl.gameboj.bits.BitVector;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 import ch.epfl.gameboj.component.memory.Ram;
 
-public final class LcdController implements Component, Clocked {
+public final class LcdController implements Component, Clocked, Stateful {
 
 	public static final int LCD_WIDTH = 160;
 	public static final int LCD_HEIGHT = 144;
-	private static final int LCD_FULLSIZE = 256;
+	public static final int CYCLES_PER_IMAGE = 17556;
 	private static final int CYCLES_PER_LINE = 114;
-	private static final int CYCLES_PER_IMAGE = 17556;
 	private static final int CYCLES_MODE_0 = 51;
 	private static final int CYCLES_MODE_2 = 20;
 	private static final int CYCLES_MODE_3 = 43;
@@ -33,29 +37,45 @@ public final class LcdController implements Component, Clocked {
 	private static final int START_MODE_2 = 0;
 	private static final int START_MODE_3 = 20;
 	private static final int UPDATE_INDEX_IN_REG_STAT = 3;
-	private static final int BYTES_PER_SPRITE = 4;
-	private static final int TILES_PER_LIGNE = 32;
-	private static final int BITS_PER_TILE_SIDE = 8;
-	private static final int STANDARD_SPRITE_SIZE = 8;
-	private static final int BYTES_PER_TILE = 16;
-	private static final int AJUST_WX = 7;
-	private static final int ADJUST_X_SPRITE = 8;
-	private static final int ADJUST_Y_SPRITE = 16;
-	private static final int MAXIMUM_NUMBER_OF_SPRITES = 10;
-	private static final int MID_INTERVAL_VALUE_TILE_INDEX = 0x80;
-	private static final int ADJUST_PLAGE_TILE = 0x800;
+	static final int AJUST_WX = 7;
+	// taille de la liste de commandes du dessinateur, et nombre de lignes dessinées
+	// au plus entre deux transmissions de celle-ci
+	private static final int COMMANDS_CAPACITY = 4096;
+	private static final int LINES_PER_BATCH = 16;
 
 	private final Cpu cpu;
 	private Bus bus;
-	private LcdImage image;
 	private final RegisterFile<Reg> registerFile;
 	private final Ram videoRam;
 	private final Ram OAMram;
 	private long nextNonIdleCycle;
 	private long lcdOnCycle;
-	private LcdImage.Builder nextImageBuilder;
 	private int winY;
-	private int currentCopyAddress;
+	// cycle auquel se termine la copie DMA en cours, Long.MAX_VALUE s'il n'y en a
+	// aucune, et dernier cycle simulé, durant lequel le registre DMA peut être écrit
+	private long dmaEndCycle;
+	private long currentCycle;
+	// nombre d'images produites depuis la construction, ne faisant pas partie de
+	// l'état sauvegardé
+	private long frameCount;
+	// nombre d'images non dessinées entre deux images dessinées, vrai ssi le
+	// dessin est activé par l'hôte, et vrai ssi l'image en cours est dessinée
+	// (décidé au début de chaque image)
+	private int frameSkip;
+	private boolean renderingEnabled;
+	private boolean renderingFrame;
+	// dessinateur des images et commandes qui ne lui ont pas encore été
+	// transmises ; s'il dessine dans un autre fil, celui-ci exécute les commandes
+	// transmises dans l'ordre, et pendingRendering se termine avec la dernière,
+	// ou dès l'échec de l'une d'elles, les suivantes n'étant alors pas exécutées
+	private final LcdRenderer renderer;
+	private final int[] commands;
+	private int commandCount;
+	private ExecutorService renderingExecutor;
+	private CompletableFuture<Void> pendingRendering;
+	// faux ssi les écritures en mémoire ne sont plus transmises au dessinateur,
+	// tant que le dessin est désactivé
+	private boolean rendererUpToDate;
 
 	/**
 	 * @author lucas Type énuméré représentant toutes les registres du LCDcontroller
@@ -69,7 +89,7 @@ public final class LcdController implements Component, Clocked {
 	 * @author lucas Type énuméré représentant les diférents bit du registre LCDC
 	 *
 	 */
-	private enum LCDC implements Bit {
+	enum LCDC implements Bit {
 		BG, OBJ, OBJ_SIZE, BG_AREA, TILE_SOURCE, WIN, WIN_AREA, LCD_STATUS
 	}
 
@@ -81,24 +101,6 @@ public final class LcdController implements Component, Clocked {
 		MODE0, MODE1, LYC_EQ_LY, INT_MODE0, INT_MODE1, INT_MODE2, INT_LYC, UNUSED;
 	}
 
-	/**
-	 * @author lucas Type énuméré représentant les 4 diférents bytes d'informations
-	 *         d'un sprite
-	 *
-	 */
-	private enum SpriteAttributs implements Bit {
-		Y, X, TILE_INDEX, INFO
-	}
-
-	/**
-	 * @author lucas Type énuméré representant les diférents bit du dernier byte (4
-	 *         sur 4) d'information d'un sprite
-	 *
-	 */
-	private enum InfoSprite implements Bit {
-		UNUSED_0, UNUSED_1, UNUSED_2, UNUSED_3, PALETTE, FLIP_H, FLIP_V, BEHIND_BG
-	}
-
 	/**
 	 * @author lucas Type énuméré répresentant les diférents modes dans lequel le
 	 *         LCD controller peut se trouver
@@ -117,29 +119,36 @@ public final class LcdController implements Component, Clocked {
 		}
 		videoRam = new Ram(VIDEO_RAM_SIZE);
 		OAMram = new Ram(OAM_RAM_SIZE);
+		renderer = new LcdRenderer();
+		commands = new int[COMMANDS_CAPACITY];
+		rendererUpToDate = true;
 		nextNonIdleCycle = Long.MAX_VALUE;
 		lcdOnCycle = 0;
-		nextImageBuilder = new LcdImage.Builder(LCD_HEIGHT, LCD_WIDTH);
-		image = nextImageBuilder.build();
 		winY = 0;
-		currentCopyAddress = AddressMap.OAM_RAM_SIZE;
+		dmaEndCycle = Long.MAX_VALUE;
+		renderingEnabled = true;
 	}
 
 	@Override
 	public void cycle(long cycle) {
+		currentCycle = cycle;
 		if (nextNonIdleCycle == Long.MAX_VALUE && registerFile.testBit(Reg.LCDC, LCDC.LCD_STATUS)) {
 			nextNonIdleCycle = cycle;
 			lcdOnCycle = cycle;
 		}
-		if (currentCopyAddress < OAM_RAM_SIZE) {
-			int value = bus.read((registerFile.get(Reg.DMA) << 8) | currentCopyAddress);
-			OAMram.write(currentCopyAddress, value);
-			++currentCopyAddress;
-		}
+		if (cycle >= dmaEndCycle)
+			copyDMA();
 		if (cycle == nextNonIdleCycle)
 			reallyCycle(cycle);
 	}
 
+	@Override
+	public long nextEventCycle(long cycle) {
+		if (nextNonIdleCycle == Long.MAX_VALUE)
+			return registerFile.testBit(Reg.LCDC, LCDC.LCD_STATUS) ? cycle : dmaEndCycle;
+		return Math.min(nextNonIdleCycle, dmaEndCycle);
+	}
+
 	private void reallyCycle(long cycle) {
 		int elapsedCycles = (int) (cycle - lcdOnCycle) % CYCLES_PER_IMAGE;
 		int currentLine = elapsedCycles / CYCLES_PER_LINE;
@@ -152,14 +161,24 @@ public final class LcdController implements Component, Clocked {
 				nextNonIdleCycle += CYCLES_MODE_2;
 
 				if (elapsedCycles == 0) {
-					nextImageBuilder = new LcdImage.Builder(LCD_HEIGHT, LCD_WIDTH);
+					renderingFrame = renderingEnabled && frameCount % (frameSkip + 1) == 0;
+					if (renderingFrame) {
+						if (!rendererUpToDate) {
+							finishRendering();
+							renderer.synchronize(videoRam, OAMram);
+							rendererUpToDate = true;
+						}
+						sendCommand(LcdRenderer.START_FRAME);
+					} else if (!renderingEnabled)
+						rendererUpToDate = false;
 					winY = 0;
 				}
 			}
 				break;
 			case START_MODE_3: {
 				setMode(MODE.MODE_3);
-				computeLine(currentLine);
+				if (renderingFrame)
+					sendLine(currentLine);
 				nextNonIdleCycle += CYCLES_MODE_3;
 
 			}
@@ -173,7 +192,12 @@ public final class LcdController implements Component, Clocked {
 		} else {
 			if (elapsedCycles == LCD_HEIGHT * CYCLES_PER_LINE) {
 				setMode(MODE.MODE_1);
-				image = nextImageBuilder.build();
+				if (renderingFrame) {
+					sendCommand(LcdRenderer.END_FRAME);
+					flushCommands();
+				}
+				renderingFrame = false;
+				++frameCount;
 				cpu.requestInterrupt(Interrupt.VBLANK);
 			}
 			updateLYorLYC(Reg.LY, currentLine);
@@ -203,11 +227,15 @@ public final class LcdController implements Component, Clocked {
 		Preconditions.checkBits16(address);
 		Preconditions.checkBits8(data);
 
-		if (address >= VIDEO_RAM_START && address < VIDEO_RAM_END)
-			videoRam.write(address - VIDEO_RAM_START, data);
+		if (address >= VIDEO_RAM_START && address < VIDEO_RAM_END) {
+			int offset = address - VIDEO_RAM_START;
+			videoRam.write(offset, data);
+			if (rendererUpToDate)
+				sendCommand(LcdRenderer.videoRamWrite(offset, data));
+		}
 
 		else if (address >= OAM_START && address < OAM_END)
-			OAMram.write(address - OAM_START, data);
+			writeOAM(address - OAM_START, data);
 
 		else if (address >= REGS_LCDC_START && address < REGS_LCDC_END) {
 			Reg reg = Reg.values()[address - REGS_LCDC_START];
@@ -236,7 +264,9 @@ public final class LcdController implements Component, Clocked {
 			}
 				break;
 			case DMA: {
-				currentCopyAddress = 0;
+				// la copie, qui dure un cycle par octet, est effectuée d'un coup à
+				// sa fin
+				dmaEndCycle = currentCycle + OAM_RAM_SIZE;
 				registerFile.set(reg, data);
 			}
 				break;
@@ -250,6 +280,12 @@ public final class LcdController implements Component, Clocked {
 
 	}
 
+	@Override
+	public int[][] addressRanges() {
+		return new int[][] { { VIDEO_RAM_START, VIDEO_RAM_END }, { OAM_START, OAM_END },
+				{ REGS_LCDC_START, REGS_LCDC_END } };
+	}
+
 	@Override
 	public void attachTo(Bus bus) {
 		Objects.requireNonNull(bus);
@@ -258,10 +294,254 @@ public final class LcdController implements Component, Clocked {
 	}
 
 	/**
-	 * @return l'image actuellement affichée à l'écran
+	 * Remplace l'état du contrôleur par celui du contrôleur donné, les mémoires
+	 * vidéo et d'attributs partageant leurs pages avec celles de l'autre jusqu'à
+	 * leur modification
+	 * 
+	 * @param that
+	 *            : contrôleur à copier, non null
+	 */
+	public void copyFrom(LcdController that) {
+		that.finishRendering();
+		finishRendering();
+		for (Reg r : Reg.values())
+			registerFile.set(r, that.registerFile.get(r));
+		videoRam.copyFrom(that.videoRam);
+		OAMram.copyFrom(that.OAMram);
+		renderer.copyFrom(that.renderer);
+		rendererUpToDate = that.rendererUpToDate;
+		nextNonIdleCycle = that.nextNonIdleCycle;
+		lcdOnCycle = that.lcdOnCycle;
+		winY = that.winY;
+		dmaEndCycle = that.dmaEndCycle;
+		currentCycle = that.currentCycle;
+		renderingFrame = that.renderingFrame;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+		finishRendering();
+		for (Reg r : Reg.values())
+			buffer.put((byte) registerFile.get(r));
+		videoRam.saveState(buffer);
+		OAMram.saveState(buffer);
+		buffer.putLong(nextNonIdleCycle).putLong(lcdOnCycle);
+		buffer.put((byte) winY).putLong(dmaEndCycle);
+		renderer.saveState(buffer);
+	}
+
+	@Override
+	public void loadState(ByteBuffer buffer) {
+		// les commandes en attente concernent l'état remplacé
+		commandCount = 0;
+		finishRendering();
+		for (Reg r : Reg.values())
+			registerFile.set(r, Byte.toUnsignedInt(buffer.get()));
+		videoRam.loadState(buffer);
+		OAMram.loadState(buffer);
+		renderer.synchronize(videoRam, OAMram);
+		rendererUpToDate = true;
+		nextNonIdleCycle = buffer.getLong();
+		lcdOnCycle = buffer.getLong();
+		winY = Byte.toUnsignedInt(buffer.get());
+		dmaEndCycle = buffer.getLong();
+		renderingFrame = renderer.loadState(buffer);
+	}
+
+	@Override
+	public void checkState(ByteBuffer buffer) {
+		Stateful.skip(buffer, Reg.values().length);
+		videoRam.checkState(buffer);
+		OAMram.checkState(buffer);
+		// nextNonIdleCycle et lcdOnCycle, winY, puis dmaEndCycle
+		Preconditions.checkArgument(buffer.getLong() >= 0);
+		Preconditions.checkArgument(buffer.getLong() >= 0);
+		Stateful.skip(buffer, Byte.BYTES);
+		Preconditions.checkArgument(buffer.getLong() >= 0);
+		LcdRenderer.checkState(buffer);
+	}
+
+	/**
+	 * Retourne la dernière image dont le dessin est terminé, sans attendre : si
+	 * le dessin a lieu dans un autre fil, elle peut précéder d'une ou plusieurs
+	 * images celle correspondant à l'état actuel de la simulation
+	 * 
+	 * @return la dernière image dessinée
 	 */
 	public LcdImage currentImage() {
-		return image;
+		return renderer.image();
+	}
+
+	/**
+	 * Définit le nombre d'images à ne pas dessiner entre deux images dessinées,
+	 * p.ex. en avance rapide : les images non dessinées sont simulées normalement
+	 * (registres LY et STAT, interruptions), mais leurs lignes ne sont pas
+	 * calculées et l'image affichée reste la dernière dessinée. Le changement
+	 * prend effet au début de l'image suivante.
+	 * 
+	 * @param frameSkip
+	 *            : nombre d'images à ne pas dessiner, positif ou nul
+	 * @throws IllegalArgumentException
+	 *             si le nombre est négatif
+	 */
+	public void setFrameSkip(int frameSkip) {
+		Preconditions.checkArgument(frameSkip >= 0);
+		this.frameSkip = frameSkip;
+	}
+
+	/**
+	 * Active ou désactive le dessin des images, p.ex. depuis l'auditeur d'images
+	 * du GameBoy pour ne dessiner que les images utilisées par l'hôte : tant qu'il
+	 * est désactivé, la simulation est inchangée (registres LY et STAT,
+	 * interruptions), mais aucune ligne ni image n'est construite et l'image
+	 * affichée reste la dernière dessinée. Le changement prend effet au début de
+	 * l'image suivante.
+	 * 
+	 * @param enabled
+	 *            : vrai ssi les images doivent être dessinées
+	 */
+	public void setRenderingEnabled(boolean enabled) {
+		renderingEnabled = enabled;
+	}
+
+	/**
+	 * @return le nombre d'images produites (au début de chaque VBLANK) depuis la
+	 *         construction du contrôleur ; ce compteur n'est pas affecté par le
+	 *         chargement ou la copie d'un état
+	 */
+	public long frameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Active ou désactive le dessin des images par un fil dédié : les lignes sont
+	 * alors dessinées, à partir d'une copie des registres et des mémoires au moment
+	 * de leur dessin, pendant que la simulation continue. Les images produites sont
+	 * identiques ; les méthodes consultant l'image affichée ou l'état complet du
+	 * contrôleur attendent la fin du dessin en cours.
+	 * 
+	 * @param parallel
+	 *            : vrai ssi les images doivent être dessinées par un fil dédié
+	 */
+	public void setParallelRendering(boolean parallel) {
+		finishRendering();
+		if (parallel && renderingExecutor == null) {
+			renderingExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "gameboj-renderer");
+				t.setDaemon(true);
+				return t;
+			});
+		} else if (!parallel && renderingExecutor != null) {
+			renderingExecutor.shutdown();
+			renderingExecutor = null;
+		}
+	}
+
+	/**
+	 * Copie d'un coup dans la mémoire d'attributs les 160 octets dont l'adresse
+	 * de départ est donnée par le registre DMA, puis transmet au dessinateur, s'il
+	 * est tenu à jour, une seule commande contenant le nouveau contenu ; il ne
+	 * recalcule qu'une fois les sprites intersectant chaque ligne
+	 */
+	private void copyDMA() {
+		int source = registerFile.get(Reg.DMA) << 8;
+		for (int i = 0; i < OAM_RAM_SIZE; ++i)
+			OAMram.write(i, bus.read(source + i));
+		dmaEndCycle = Long.MAX_VALUE;
+
+		if (rendererUpToDate) {
+			if (commandCount + LcdRenderer.OAM_COMMAND_SIZE > commands.length)
+				flushCommands();
+			LcdRenderer.putOAM(commands, commandCount, OAMram);
+			commandCount += LcdRenderer.OAM_COMMAND_SIZE;
+		}
+	}
+
+	/**
+	 * Écrit dans la mémoire d'attributs des sprites, et dans celle du dessinateur
+	 * s'il est tenu à jour
+	 * 
+	 * @param index
+	 *            : index de l'octet dans la mémoire d'attributs
+	 * @param data
+	 *            : valeur 8 bits à écrire
+	 */
+	private void writeOAM(int index, int data) {
+		OAMram.write(index, data);
+		if (rendererUpToDate)
+			sendCommand(LcdRenderer.oamWrite(index, data));
+	}
+
+	/**
+	 * Ajoute la commande donnée à la liste de celles à transmettre au dessinateur
+	 * 
+	 * @param command
+	 *            : commande à ajouter
+	 */
+	private void sendCommand(int command) {
+		if (commandCount == commands.length)
+			flushCommands();
+		commands[commandCount++] = command;
+	}
+
+	/**
+	 * Ajoute à la liste des commandes celle du dessin de la ligne donnée, avec la
+	 * valeur actuelle des registres, et transmet la liste au dessinateur toutes
+	 * les LINES_PER_BATCH lignes
+	 * 
+	 * @param y
+	 *            : index de la ligne à dessiner
+	 */
+	private void sendLine(int y) {
+		int WX = Math.max(0, registerFile.get(Reg.WX) - AJUST_WX);
+		boolean window = registerFile.testBit(Reg.LCDC, LCDC.WIN) && WX >= 0 && WX < LCD_WIDTH
+				&& y >= registerFile.get(Reg.WY);
+
+		if (commandCount + LcdRenderer.LINE_COMMAND_SIZE > commands.length)
+			flushCommands();
+		LcdRenderer.putLine(commands, commandCount, y, window ? winY : -1, registerFile.get(Reg.LCDC),
+				registerFile.get(Reg.SCY), registerFile.get(Reg.SCX), registerFile.get(Reg.WX),
+				registerFile.get(Reg.BGP), registerFile.get(Reg.OBP0), registerFile.get(Reg.OBP1));
+		commandCount += LcdRenderer.LINE_COMMAND_SIZE;
+		if (window)
+			++winY;
+
+		if ((y + 1) % LINES_PER_BATCH == 0)
+			flushCommands();
+	}
+
+	/**
+	 * Transmet au dessinateur les commandes en attente : il les exécute
+	 * immédiatement, ou plus tard dans son propre fil
+	 */
+	private void flushCommands() {
+		if (commandCount == 0)
+			return;
+		if (renderingExecutor == null)
+			renderer.execute(commands, commandCount);
+		else {
+			int[] batch = Arrays.copyOf(commands, commandCount);
+			Runnable task = () -> renderer.execute(batch, batch.length);
+			pendingRendering = (pendingRendering == null) ? CompletableFuture.runAsync(task, renderingExecutor)
+					: pendingRendering.thenRunAsync(task, renderingExecutor);
+		}
+		commandCount = 0;
+	}
+
+	/**
+	 * Transmet au dessinateur les commandes en attente et attend qu'il les ait
+	 * toutes exécutées, après quoi il peut être consulté par ce fil
+	 * 
+	 * @throws CompletionException
+	 *             si l'exécution de l'un des lots de commandes a échoué
+	 */
+	private void finishRendering() {
+		flushCommands();
+		if (pendingRendering != null) {
+			CompletableFuture<Void> pending = pendingRendering;
+			pendingRendering = null;
+			pending.join();
+		}
 	}
 
 	/**
@@ -327,177 +607,4 @@ public final class LcdController implements Component, Clocked {
 		registerFile.setBit(Reg.STAT, STAT.MODE1, b1);
 		registerFile.setBit(Reg.STAT, STAT.MODE0, b0);
 	}
-
-	/**
-	 * Calcule la ligne d'index y et la stocke dans le batisseur d'image
-	 * 
-	 * @param y
-	 *            : index de la ligne à calculer
-	 */
-	private void computeLine(int y) {
-
-		boolean bitTileSource = registerFile.testBit(Reg.LCDC, LCDC.TILE_SOURCE);
-		int tileImageStart = AddressMap.TILE_SOURCE[(bitTileSource) ? 1 : 0];
-		int SCY = registerFile.get(Reg.SCY);
-		int SCX = registerFile.get(Reg.SCX);
-		int WX = Math.max(0, registerFile.get(Reg.WX) - AJUST_WX);
-		int WY = registerFile.get(Reg.WY);
-		int realY = (y + SCY) % LCD_FULLSIZE;
-		int plageStart;
-
-		LcdImageLine.Builder bg = new LcdImageLine.Builder(LCD_FULLSIZE);
-		LcdImageLine.Builder window = new LcdImageLine.Builder(LCD_FULLSIZE);
-
-		// Background
-		if (registerFile.testBit(Reg.LCDC, LCDC.BG)) {
-			plageStart = AddressMap.BG_DISPLAY_DATA[(registerFile.testBit(Reg.LCDC, LCDC.BG_AREA)) ? 1 : 0];
-			setValueLine(realY, bg, bitTileSource, plageStart, tileImageStart);
-		}
-		LcdImageLine finalBG = bg.build().extractWrapped(SCX, LCD_WIDTH).mapColors(registerFile.get(Reg.BGP));
-
-		// Window
-		if (registerFile.testBit(Reg.LCDC, LCDC.WIN) && WX >= 0 && WX < LCD_WIDTH && y >= WY) {
-			plageStart = AddressMap.BG_DISPLAY_DATA[(registerFile.testBit(Reg.LCDC, LCDC.WIN_AREA)) ? 1 : 0];
-			setValueLine(winY, window, bitTileSource, plageStart, tileImageStart);
-
-			LcdImageLine finalWindow = window.build();
-			finalWindow = finalWindow.extractWrapped(0, LCD_WIDTH).mapColors(registerFile.get(Reg.BGP));
-			finalBG = finalBG.join(WX, finalWindow.shift(WX));
-			++winY;
-		}
-
-		// Sprites
-		LcdImageLine spriteFG = new LcdImageLine.Builder(LCD_WIDTH).build();
-
-		if (registerFile.testBit(Reg.LCDC, LCDC.OBJ)) {
-			int[] sprites = new int[MAXIMUM_NUMBER_OF_SPRITES];
-			LcdImageLine spriteBG = new LcdImageLine.Builder(LCD_WIDTH).build();
-
-			for (int i = 0; i < spritesIntersectingLine(y, sprites); i++) {
-
-				if (Bits.test(OAMram.read(BYTES_PER_SPRITE * Bits.clip(8, sprites[i]) + SpriteAttributs.INFO.index()),
-						InfoSprite.BEHIND_BG))
-					spriteBG = setSpriteLine(y, sprites[i]).below(spriteBG);
-				else
-					spriteFG = setSpriteLine(y, sprites[i]).below(spriteFG);
-			}
-
-			BitVector opacityBG = spriteBG.opacity().not().or(finalBG.opacity());
-			finalBG = spriteBG.below(opacityBG, finalBG);
-
-		}
-
-		nextImageBuilder.setLine(y, finalBG.below(spriteFG));
-
-	}
-
-	/**
-	 * Calcule réellement la ligne
-	 * 
-	 * @param y
-	 *            : index de la ligne
-	 * @param line
-	 *            : ligne à construire
-	 * @param bitTileSource
-	 *            : vrai si le bit Tile source de LCDC vaut 1
-	 * @param tileAddressStart
-	 *            : plage [980016 à 9C0016] ou plage [9C0016 à A00016] obtenue à
-	 *            partir de AddressMap.BG_DISPLAY_DATA
-	 * @param tileImageStart
-	 *            : plaqe 8000 ou 8800 obtenue à partir de AddressMap.TILE_SOURCE
-	 */
-	private void setValueLine(int y, LcdImageLine.Builder line, boolean bitTileSource, int tileAddressStart,
-			int tileImageStart) {
-
-		for (int x = 0; x < TILES_PER_LIGNE; ++x) {
-			// obtient les 8 bits de poids faible de l'index de la tuile
-			int tileIndex = read(tileAddressStart + (TILES_PER_LIGNE * (y / BITS_PER_TILE_SIDE)) + x);
-
-			// sert à mettre à jour tileImageStart (de 0x8800 à 0x9000) si besoin
-			int adjustPlage = (!bitTileSource && tileIndex < MID_INTERVAL_VALUE_TILE_INDEX) ? ADJUST_PLAGE_TILE : 0;
-
-			// sert à mettre à jour tileIndex en retirant 0x80 si besoin
-			int adjustTileIndex = (!bitTileSource && (tileIndex >= MID_INTERVAL_VALUE_TILE_INDEX))
-					? -MID_INTERVAL_VALUE_TILE_INDEX
-					: 0;
-
-			int finalAddress = (tileImageStart + adjustPlage) + (tileIndex + adjustTileIndex) * BYTES_PER_TILE
-					+ y % BITS_PER_TILE_SIDE * 2;
-
-			int msb = Bits.reverse8(read(finalAddress + 1));
-			int lsb = Bits.reverse8(read(finalAddress));
-			line.setBytes(x, msb, lsb);
-		}
-
-	}
-
-	/**
-	 * Calcule la ligne correspondant au sprite donné, dans la ligne y
-	 * 
-	 * @param y
-	 *            : ligne à partir de laquelle on veut calculer les sprites
-	 * @param spriteValue
-	 *            : valeur empaquetée avec dans les 8 bits de poids fort la
-	 *            coordonée x du sprite et l'index du sprite dans les 8 bits de
-	 *            poids faible
-	 * @return : la ligne correspondant au sprite, shiftée et mapé avec les bonnes
-	 *         couleurs
-	 */
-	private LcdImageLine setSpriteLine(int y, int spriteValue) {
-
-		LcdImageLine.Builder line = new LcdImageLine.Builder(LCD_WIDTH);
-		int spriteIndex = Bits.clip(8, spriteValue);
-		int xSprite = Bits.extract(spriteValue, 8, 8) - ADJUST_X_SPRITE;
-		int ySprite = OAMram.read(BYTES_PER_SPRITE * spriteIndex + SpriteAttributs.Y.index()) - ADJUST_Y_SPRITE;
-		int tileIndex = OAMram.read(BYTES_PER_SPRITE * spriteIndex + SpriteAttributs.TILE_INDEX.index());
-		int infoSprite = OAMram.read(BYTES_PER_SPRITE * spriteIndex + SpriteAttributs.INFO.index());
-		int spriteSize = (registerFile.testBit(Reg.LCDC, LCDC.OBJ_SIZE)) ? STANDARD_SPRITE_SIZE * 2
-				: STANDARD_SPRITE_SIZE;
-
-		int palette = (Bits.test(infoSprite, InfoSprite.PALETTE)) ? registerFile.get(Reg.OBP1)
-				: registerFile.get(Reg.OBP0);
-		int realIndex = (Bits.test(infoSprite, InfoSprite.FLIP_V)) ? (spriteSize - 1) - (y - ySprite) : y - ySprite;
-
-		int msb = videoRam.read(tileIndex * BYTES_PER_TILE + realIndex * 2 + 1);
-		int lsb = videoRam.read(tileIndex * BYTES_PER_TILE + realIndex * 2);
-
-		if (!Bits.test(infoSprite, InfoSprite.FLIP_H)) {
-			msb = Bits.reverse8(msb);
-			lsb = Bits.reverse8(lsb);
-		}
-		return line.setBytes(0, msb, lsb).build().shift(xSprite).mapColors(palette);
-
-	}
-
-	/**
-	 * Calcule les sprites à afficher sur une ligne donnée (y) dont l'image
-	 * intersecte la ligne donnée, stocke ceux-ci dans le tableau passé en paramètre
-	 * et le trie selon l'ordre d'empilement.
-	 * 
-	 * @param y
-	 *            : ligne à partir de laquelle on veut calculer les sprites
-	 * @param sprites
-	 *            : tableau contenant les futurs index des (au plus 10) sprites
-	 * @return : le nombre de de sprites interectant y
-	 */
-	private int spritesIntersectingLine(int y, int[] sprites) {
-		int spriteNumber = 0;
-		int spriteSize = (registerFile.testBit(Reg.LCDC, LCDC.OBJ_SIZE)) ? STANDARD_SPRITE_SIZE * 2
-				: STANDARD_SPRITE_SIZE;
-
-		for (int index = 0; index < OAM_RAM_SIZE; index += BYTES_PER_SPRITE) {
-
-			int ySprite = OAMram.read(index + SpriteAttributs.Y.index()) - ADJUST_Y_SPRITE;
-
-			if (y >= ySprite && y < (ySprite + spriteSize) && spriteNumber < sprites.length) {
-				int xSprite = (OAMram.read(index + SpriteAttributs.X.index()));
-				int spriteIndex = index / BYTES_PER_SPRITE;
-				sprites[spriteNumber] = (xSprite << 8) | spriteIndex;
-				++spriteNumber;
-			}
-		}
-
-		Arrays.sort(sprites, 0, spriteNumber);
-		return spriteNumber;
-	}
-}
\ No newline at end of file
+}
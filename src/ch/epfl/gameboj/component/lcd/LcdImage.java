@@ -1,18 +1,22 @@
 package ch.epfl.gameboj.component.lcd;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
 import ch.epfl.gameboj.Preconditions;
-import ch.epfl.gameboj.bits.BitVector;
 
 public final class LcdImage {
 
+	private static final int BITS_PER_PIXEL = 2;
+	private static final int PIXELS_PER_WORD = Long.SIZE / BITS_PER_PIXEL;
+
 	private final int height;
 	private final int width;
-	private final List<LcdImageLine> image;
+	// couleurs des pixels, ligne par ligne, chaque mot contenant 32 pixels de 2
+	// bits (le pixel d'abscisse x dans les bits 2x et 2x + 1)
+	private final long[] pixels;
 
 	/**
 	 * Construit l'image
@@ -29,13 +33,104 @@ public final class LcdImage {
 	 *             pas la même taille que height
 	 */
 	public LcdImage(int height, int width, List<LcdImageLine> image) {
+		this(height, width, packLines(height, width, image));
+	}
+
+	/**
+	 * @param height
+	 *            : la hauteur de l'image
+	 * @param width
+	 *            : la largeur de l'image
+	 * @param pixels
+	 *            : couleurs empaquetées des pixels, qui ne doivent plus être
+	 *            modifiées
+	 */
+	private LcdImage(int height, int width, long[] pixels) {
+		this.height = height;
+		this.width = width;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * @param height
+	 *            : la hauteur de l'image
+	 * @param width
+	 *            : la largeur de l'image
+	 * @param image
+	 *            : liste des lignes de l'image. Doit être non null
+	 * @return les couleurs empaquetées des pixels des lignes données
+	 */
+	private static long[] packLines(int height, int width, List<LcdImageLine> image) {
 		Objects.requireNonNull(image);
 		Preconditions.checkArgument(height > 0 && width > 0);
 		Preconditions.checkArgument(image.size() == height);
 
-		this.height = height;
-		this.width = width;
-		this.image = Collections.unmodifiableList(new ArrayList<>(image));
+		long[] pixels = new long[height * wordsPerLine(width)];
+		for (int y = 0; y < height; ++y)
+			packLine(pixels, y, width, image.get(y));
+		return pixels;
+	}
+
+	/**
+	 * Écrit les couleurs de la ligne donnée dans le tableau de pixels empaquetés,
+	 * en entrelaçant ses bits de poids fort et de poids faible
+	 * 
+	 * @param pixels
+	 *            : couleurs empaquetées des pixels de l'image
+	 * @param y
+	 *            : index de la ligne
+	 * @param width
+	 *            : largeur de l'image
+	 * @param line
+	 *            : ligne à écrire, de même largeur que l'image
+	 * @throws IllegalArgumentException
+	 *             si la ligne n'a pas la largeur de l'image
+	 */
+	private static void packLine(long[] pixels, int y, int width, LcdImageLine line) {
+		Preconditions.checkArgument(line.size() == width);
+		int start = y * wordsPerLine(width);
+		for (int i = 0; i < wordsPerLine(width); ++i)
+			pixels[start + i] = packWord(line.msb().word(i / 2), line.lsb().word(i / 2), i);
+	}
+
+	/**
+	 * @param msb
+	 *            : mot de 64 bits de poids fort des couleurs des pixels
+	 * @param lsb
+	 *            : mot de 64 bits de poids faible des couleurs des pixels
+	 * @param i
+	 *            : index du mot de l'image dans la ligne, dont la parité donne la
+	 *            moitié des mots à empaqueter
+	 * @return le mot de l'image contenant les couleurs des 32 pixels
+	 */
+	private static long packWord(long msb, long lsb, int i) {
+		int shift = (i % 2) * Integer.SIZE;
+		return (spread((int) (msb >>> shift)) << 1) | spread((int) (lsb >>> shift));
+	}
+
+	/**
+	 * @param value
+	 *            : valeur 32 bits
+	 * @return la valeur 64 bits dont les bits d'index pair sont ceux de la valeur
+	 *         donnée, les bits d'index impair valant 0
+	 */
+	private static long spread(int value) {
+		long v = Integer.toUnsignedLong(value);
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	/**
+	 * @param width
+	 *            : largeur de l'image
+	 * @return le nombre de mots occupés par une ligne de l'image
+	 */
+	private static int wordsPerLine(int width) {
+		return (width + PIXELS_PER_WORD - 1) / PIXELS_PER_WORD;
 	}
 
 	/**
@@ -69,28 +164,114 @@ public final class LcdImage {
 		Objects.checkIndex(x, width);
 		Objects.checkIndex(y, height);
 
-		LcdImageLine line = image.get(y);
-		int color = (line.msb().testBit(x)) ? 2 : 0;
-		return (line.lsb().testBit(x)) ? color + 1 : color;
+		long word = pixels[y * wordsPerLine(width) + x / PIXELS_PER_WORD];
+		return (int) (word >>> (BITS_PER_PIXEL * (x % PIXELS_PER_WORD))) & 0b11;
+	}
+
+	/**
+	 * Remplit le tableau donné avec les valeurs associées à la couleur de chaque
+	 * pixel de l'image, ligne par ligne, le pixel d'index (x, y) étant placé à
+	 * l'index y * largeur + x
+	 * 
+	 * @param colorMap
+	 *            : valeurs associées aux couleurs 0 à 3. Doit être non null et de
+	 *            taille 4
+	 * @param destination
+	 *            : tableau à remplir, d'une taille au moins égale au nombre de
+	 *            pixels de l'image. Doit être non null
+	 * 
+	 * @throws IllegalArgumentException
+	 *             si l'un des tableaux n'a pas la taille requise
+	 */
+	public void toPixels(int[] colorMap, int[] destination) {
+		Preconditions.checkArgument(colorMap.length == 4 && destination.length >= width * height);
+
+		int index = 0;
+		for (int y = 0; y < height; ++y) {
+			int start = y * wordsPerLine(width);
+			for (int x = 0; x < width; x += PIXELS_PER_WORD) {
+				long word = pixels[start + x / PIXELS_PER_WORD];
+				for (int i = 0; i < Math.min(PIXELS_PER_WORD, width - x); ++i) {
+					destination[index++] = colorMap[(int) word & 0b11];
+					word >>>= BITS_PER_PIXEL;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Écrit les couleurs empaquetées des pixels dans le tampon donné
+	 * 
+	 * @param buffer
+	 *            : tampon dans lequel écrire l'image
+	 */
+	void saveState(ByteBuffer buffer) {
+		buffer.asLongBuffer().put(pixels);
+		buffer.position(buffer.position() + pixels.length * Long.BYTES);
+	}
+
+	/**
+	 * Lit dans le tampon donné une image écrite par saveState
+	 * 
+	 * @param height
+	 *            : la hauteur de l'image
+	 * @param width
+	 *            : la largeur de l'image
+	 * @param buffer
+	 *            : tampon contenant l'image
+	 * @return l'image lue
+	 */
+	static LcdImage loadState(int height, int width, ByteBuffer buffer) {
+		long[] pixels = new long[height * wordsPerLine(width)];
+		buffer.asLongBuffer().get(pixels);
+		buffer.position(buffer.position() + pixels.length * Long.BYTES);
+		return new LcdImage(height, width, pixels);
+	}
+
+	/**
+	 * @param height
+	 *            : la hauteur de l'image
+	 * @param width
+	 *            : la largeur de l'image
+	 * @return la taille, en octets, des pixels d'une image de la taille donnée
+	 *         écrits par saveState
+	 */
+	static int stateSize(int height, int width) {
+		return height * wordsPerLine(width) * Long.BYTES;
 	}
 
 	@Override
 	public boolean equals(Object that) {
-		return (that instanceof LcdImage) && (image.equals(((LcdImage) that).image));
+		return (that instanceof LcdImage) && ((LcdImage) that).height == height && ((LcdImage) that).width == width
+				&& Arrays.equals(pixels, ((LcdImage) that).pixels);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(height, width, image);
+		return Objects.hash(height, width, Arrays.hashCode(pixels));
 	}
 
 	public final static class Builder {
 
 		private final int height;
 		private final int width;
-		private final List<LcdImageLine> image;
+		private final long[] pixels;
 		private boolean built =false;
 
+		/**
+		 * @param height
+		 *            : la hauteur de l'image
+		 * @param width
+		 *            : la largeur de l'image
+		 * @param pixels
+		 *            : couleurs empaquetées des pixels, appartenant au builder
+		 */
+		private Builder(int height, int width, long[] pixels) {
+			this.height = height;
+			this.width = width;
+			this.pixels = pixels;
+		}
+
 		/**
 		 * Construit le builder
 		 * 
@@ -106,22 +287,32 @@ public final class LcdImage {
 
 			this.height = height;
 			this.width = width;
-			image = new ArrayList<>();
-			for (int i = 0; i < height; ++i)
-				image.add(new LcdImageLine.Builder(width).build());
+			pixels = new long[height * wordsPerLine(width)];
 		}
 
 		/**
-		 * Modifie la ligne d'index donné
+		 * @return un builder indépendant contenant les mêmes lignes que celui-ci, ou
+		 *         ce builder lui-même si son image a déjà été construite, puisqu'il
+		 *         ne peut alors plus être modifié
+		 */
+		public Builder copy() {
+			return built ? this : new Builder(height, width, pixels.clone());
+		}
+
+		/**
+		 * Modifie la ligne d'index donné, dont les couleurs sont directement
+		 * empaquetées dans l'image
 		 * 
 		 * @param index
 		 *            : index de la ligne à modifier
 		 * @param newLine
-		 *            : nouvelle ligne à affecter à l'image
+		 *            : nouvelle ligne à affecter à l'image, de même largeur
 		 * @return le builder lui-même
 		 * 
 		 * @throws IndexOutOfBoundsException
 		 *             si l'index n'est pas valide
+		 * @throws IllegalArgumentException
+		 *             si la ligne n'a pas la largeur de l'image
 		 * @throws IllegalStateException
 		 *             si l'image a déjà contruite
 		 */
@@ -131,10 +322,71 @@ public final class LcdImage {
 			if (built) {
 				throw new IllegalStateException();
 			}
-			image.set(index, newLine);
+			packLine(pixels, index, width, newLine);
 			return this;
 		}
 
+		/**
+		 * Modifie la ligne d'index donné, donnée par les mots de 64 bits de poids
+		 * fort et de poids faible de ses couleurs, p.ex. composés directement par le
+		 * dessinateur
+		 * 
+		 * @param index
+		 *            : index de la ligne à modifier
+		 * @param msb
+		 *            : bits de poids fort des couleurs de la ligne
+		 * @param lsb
+		 *            : bits de poids faible des couleurs de la ligne
+		 * @throws IndexOutOfBoundsException
+		 *             si l'index n'est pas valide
+		 * @throws IllegalStateException
+		 *             si l'image a déjà contruite
+		 */
+		void setLine(int index, long[] msb, long[] lsb) {
+			Objects.checkIndex(index, height);
+			if (built) {
+				throw new IllegalStateException();
+			}
+			int start = index * wordsPerLine(width);
+			for (int i = 0; i < wordsPerLine(width); ++i)
+				pixels[start + i] = packWord(msb[i / 2], lsb[i / 2], i);
+		}
+
+		/**
+		 * Écrit l'état du builder (image construite ou non, et couleurs des pixels)
+		 * dans le tampon donné
+		 * 
+		 * @param buffer
+		 *            : tampon dans lequel écrire l'état
+		 * @return vrai ssi l'image a déjà été construite
+		 */
+		boolean saveState(ByteBuffer buffer) {
+			buffer.put((byte) (built ? 1 : 0));
+			buffer.asLongBuffer().put(pixels);
+			buffer.position(buffer.position() + pixels.length * Long.BYTES);
+			return built;
+		}
+
+		/**
+		 * Remplace les couleurs des pixels par celles écrites par saveState dans le
+		 * tampon donné
+		 * 
+		 * @param buffer
+		 *            : tampon contenant l'état
+		 * @return vrai ssi l'image avait été construite lors de la sauvegarde
+		 * @throws IllegalStateException
+		 *             si l'image a déjà contruite
+		 */
+		boolean loadState(ByteBuffer buffer) {
+			if (built) {
+				throw new IllegalStateException();
+			}
+			boolean wasBuilt = buffer.get() != 0;
+			buffer.asLongBuffer().get(pixels);
+			buffer.position(buffer.position() + pixels.length * Long.BYTES);
+			return wasBuilt;
+		}
+
 		/**
 		 * @return l'image LCD'construite
 		 * @throws IllegalStateException
@@ -145,7 +397,7 @@ public final class LcdImage {
 				throw new IllegalStateException();
 			}
 			built = true;
-			return new LcdImage(height, width, image);
+			return new LcdImage(height, width, pixels);
 		}
 
 	}
@@ -9,7 +9,6 @@ import ch.epfl.gameboj.bits.Bits;
 public final class LcdImageLine {
 
 	private final static int SAME_COLORS = 0b11100100;
-	private final BitVector ZERO_VALUE_BITVECTOR;
 	private final BitVector msb, lsb, opacity;
 	
 
@@ -34,7 +33,6 @@ public final class LcdImageLine {
 		this.msb = msb;
 		this.lsb = lsb;
 		this.opacity = opacity;
-		ZERO_VALUE_BITVECTOR = new BitVector(size(), false);
 	}
 
 	/**
@@ -110,57 +108,37 @@ public final class LcdImageLine {
 		if (palette == SAME_COLORS) {
 			return this;
 		}
-		LcdImageLine color3 = getLineOfColor(Bits.extract(palette, 6, 2), msb.and(lsb));
-		LcdImageLine color2 = getLineOfColor(Bits.extract(palette, 4, 2), msb.and(lsb.not()));
-		LcdImageLine color1 = getLineOfColor(Bits.extract(palette, 2, 2), msb.not().and(lsb));
-		LcdImageLine color0 = getLineOfColor(Bits.clip(2, palette), msb.or(lsb).not());
-		BitVector newMsb = color3.msb.or(color2.msb).or(color1.msb).or(color0.msb);
-		BitVector newLsb = color3.lsb.or(color2.lsb).or(color1.lsb).or(color0.lsb);
+		// chaque mot est traité en un seul passage
+		BitVector.Builder newMsb = new BitVector.Builder(size());
+		BitVector.Builder newLsb = new BitVector.Builder(size());
+		for (int i = 0; i * Long.SIZE < size(); ++i) {
+			newMsb.setWord(i, mapWord(palette, 1, msb.word(i), lsb.word(i)));
+			newLsb.setWord(i, mapWord(palette, 0, msb.word(i), lsb.word(i)));
+		}
 
-		return new LcdImageLine(newMsb, newLsb, opacity);
+		return new LcdImageLine(newMsb.build(), newLsb.build(), opacity);
 	}
 
 	/**
-	 * @param newColor
-	 *            : nouvelle couleur donnée par la palette
-	 * @param indexesOfColor
-	 *            : BitVector ayant des 1 à tous les index qui contiennent une
-	 *            certaine couleur (0,1,2 ou 3) et 0 sinon. Par exemple msb.and(lsb)
-	 *            est un vecteur de bits de ce type. Il est associé à la couleur 3.
-	 *            Il signifie que à chaque index de bit valant 1 on retrouve la
-	 *            couleur 3 dans this.
-	 * @return une ligne ayant comme valeur 0 (pour msb ou lsb) si la palette
-	 *         transforme la couleur en 0 ou sinon à indexesOf Color comme valeur
+	 * Applique la palette donnée à un mot de 64 pixels
+	 * 
+	 * @param palette
+	 *            : octet correspondant à la table de transition des couleurs
+	 * @param bit
+	 *            : bit des nouvelles couleurs à calculer (1 pour le poids fort, 0
+	 *            pour le poids faible)
+	 * @param msb
+	 *            : bits de poids fort des couleurs des pixels
+	 * @param lsb
+	 *            : bits de poids faible des couleurs des pixels
+	 * @return le mot contenant le bit donné de la nouvelle couleur de chaque pixel
 	 */
-	private LcdImageLine getLineOfColor(int newColor, BitVector indexesOfColor) {
-		BitVector msb = null;
-		BitVector lsb = null;
-		switch (newColor) {
-		case 0: {
-			msb = ZERO_VALUE_BITVECTOR;
-			lsb = ZERO_VALUE_BITVECTOR;
-		}
-			break;
-		case 1: {
-			msb = ZERO_VALUE_BITVECTOR;
-			lsb = indexesOfColor;
-		}
-			break;
-		case 2: {
-			msb = indexesOfColor;
-			lsb = ZERO_VALUE_BITVECTOR;
-
-		}
-			break;
-		case 3: {
-			msb = indexesOfColor;
-			lsb = indexesOfColor;
-
-		}
-			break;
-		}
-
-		return new LcdImageLine(msb, lsb, opacity);
+	static long mapWord(int palette, int bit, long msb, long lsb) {
+		// les masques des pixels de chaque couleur sont combinés selon la nouvelle
+		// couleur que leur attribue la palette
+		long color0 = ~(msb | lsb), color1 = ~msb & lsb, color2 = msb & ~lsb, color3 = msb & lsb;
+		return (Bits.test(palette, bit) ? color0 : 0) | (Bits.test(palette, 2 + bit) ? color1 : 0)
+				| (Bits.test(palette, 4 + bit) ? color2 : 0) | (Bits.test(palette, 6 + bit) ? color3 : 0);
 	}
 
 	/**
@@ -198,10 +176,8 @@ public final class LcdImageLine {
 		Objects.requireNonNull(newOpacity);
 		Objects.requireNonNull(that);
 		Preconditions.checkArgument(that.size() == this.size() && newOpacity.size() == this.size());
-		BitVector newMsb = (that.msb.and(newOpacity)).or(msb.and(newOpacity.not()));
-		BitVector newLsb = (that.lsb.and(newOpacity)).or(lsb.and(newOpacity.not()));
-
-		return new LcdImageLine(newMsb, newLsb, newOpacity.or(opacity));
+		return new LcdImageLine(msb.select(newOpacity, that.msb), lsb.select(newOpacity, that.lsb),
+				newOpacity.or(opacity));
 	}
 
 	/**
@@ -225,9 +201,8 @@ public final class LcdImageLine {
 		Preconditions.checkArgument(size() == that.size());
 
 		BitVector maskLeft = new BitVector(size(), true).shift(index);
-		BitVector maskRight = maskLeft.not();
-		return new LcdImageLine(that.msb.and(maskLeft).or(msb.and(maskRight)),
-				that.lsb.and(maskLeft).or(lsb.and(maskRight)), that.opacity.and(maskLeft).or(opacity.and(maskRight)));
+		return new LcdImageLine(msb.select(maskLeft, that.msb), lsb.select(maskLeft, that.lsb),
+				opacity.select(maskLeft, that.opacity));
 	}
 
 	@Override
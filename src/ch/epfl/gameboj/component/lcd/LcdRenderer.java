@@ -0,0 +1,902 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.AddressMap.*;
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_HEIGHT;
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_WIDTH;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.bits.Bit;
+import ch.epfl.gameboj.bits.BitVector;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.bits.MutableBitVector;
+import ch.epfl.gameboj.component.Stateful;
+import ch.epfl.gameboj.component.lcd.LcdController.LCDC;
+import ch.epfl.gameboj.component.memory.Ram;
+
+/**
+ * Dessinateur des images de l'écran, travaillant sur sa propre copie de la
+ * mémoire vidéo et de la mémoire d'attributs des sprites. Le contrôleur LCD lui
+ * transmet une liste de commandes : les écritures dans ces mémoires, le début
+ * et la fin de chaque image dessinée et, pour chacune de ses lignes, la valeur
+ * des registres au moment de son dessin. Ces commandes peuvent être exécutées
+ * par le fil du contrôleur ou, pendant que la simulation continue, par un autre
+ * fil : le résultat est identique.
+ *
+ * Chaque commande tient dans un entier, dont les 3 bits de poids fort donnent
+ * la nature ; une commande de ligne est suivie de 2 entiers contenant les
+ * registres nécessaires à son dessin, une commande de copie de la mémoire
+ * d'attributs des sprites des 40 entiers formant son nouveau contenu.
+ */
+final class LcdRenderer {
+
+	/**
+	 * Nombre d'entiers formant une commande de ligne
+	 */
+	static final int LINE_COMMAND_SIZE = 3;
+	/**
+	 * Nombre d'entiers formant une commande de copie de la mémoire d'attributs
+	 */
+	static final int OAM_COMMAND_SIZE = 1 + OAM_RAM_SIZE / Integer.BYTES;
+	/**
+	 * Commandes de début et de fin d'image
+	 */
+	static final int START_FRAME = command(Command.FRAME, 1);
+	static final int END_FRAME = command(Command.FRAME, 0);
+
+	private static final int COMMAND_SHIFT = 29;
+	private static final Command[] COMMANDS = Command.values();
+	private static final int LCD_FULLSIZE = 256;
+	private static final int BYTES_PER_SPRITE = 4;
+	private static final int TILES_PER_LIGNE = 32;
+	private static final int BITS_PER_TILE_SIDE = 8;
+	private static final int STANDARD_SPRITE_SIZE = 8;
+	private static final int BYTES_PER_TILE = 16;
+	private static final int ADJUST_X_SPRITE = 8;
+	private static final int ADJUST_Y_SPRITE = 16;
+	private static final int MAXIMUM_NUMBER_OF_SPRITES = 10;
+	private static final int MID_INTERVAL_VALUE_TILE_INDEX = 0x80;
+	private static final int ADJUST_PLAGE_TILE = 0x800;
+	private static final int NUMBER_OF_TILES = 384;
+	private static final int TILE_DATA_SIZE = NUMBER_OF_TILES * BYTES_PER_TILE;
+	private static final int TILE_MAP_START = AddressMap.BG_DISPLAY_DATA[0] - AddressMap.VIDEO_RAM_START;
+	private static final int TILE_MAP_ROWS = 2 * TILES_PER_LIGNE;
+	private static final LcdImageLine EMPTY_TILEMAP_ROW = new LcdImageLine.Builder(LCD_FULLSIZE).build();
+	private static final int LINE_WORDS = (LCD_WIDTH + Long.SIZE - 1) / Long.SIZE;
+	// vrai si les lignes sont composées mot par mot, en un seul passage ; faux
+	// (propriété gameboj.fusedComposition à false) pour les composer par les
+	// opérations de LcdImageLine, qui servent de référence
+	private static final boolean FUSED_COMPOSITION = Boolean
+			.parseBoolean(System.getProperty("gameboj.fusedComposition", "true"));
+
+	private final Ram videoRam;
+	private final Ram OAMram;
+	// dernière image terminée, publiée par le fil qui exécute les commandes ; les
+	// images étant immuables, elle peut être lue par tout autre fil
+	private volatile LcdImage image;
+	private LcdImage.Builder nextImageBuilder;
+	// taille des sprites (vrai pour 8x16) selon laquelle spritesPerLine est calculé
+	private boolean bigSprites;
+	// vecteurs de travail, réutilisés d'une ligne à l'autre, dans lesquels sont
+	// empilés les sprites devant (FG) et derrière (BG) l'arrière-plan
+	private final MutableBitVector spriteFGMsb, spriteFGLsb, spriteFGOpacity;
+	private final MutableBitVector spriteBGMsb, spriteBGLsb, spriteBGOpacity;
+	private final MutableBitVector uncoveredMask;
+	// mots de travail de la composition en un seul passage : sprites devant (FG)
+	// et derrière (BG) l'arrière-plan, dont les couleurs ne sont définies que là
+	// où ils sont opaques, et ligne composée
+	private final long[] wordsFGMsb, wordsFGLsb, wordsFGOpacity;
+	private final long[] wordsBGMsb, wordsBGLsb, wordsBGOpacity;
+	private final long[] lineMsb, lineLsb;
+	// lignes des 384 tuiles de la mémoire vidéo, 8 par tuile, chacune
+	// empaquetant ses octets de poids fort et faible inversés (bits 31 à 16), tels
+	// que les attend le bâtisseur de ligne, et tels quels (bits 15 à 0)
+	private final int[] tileRows;
+	// lignes de 256 pixels déjà composées, pour chacune des 2 plages de tuiles et
+	// des 2 sources d'images de tuiles, avec les versions des lignes de tuiles
+	// (une par ligne dans la tuile) et des lignes de la carte des tuiles dont
+	// elles dépendent ; une ligne n'est valide que si ces versions n'ont pas changé
+	private final LcdImageLine[] tilemapRowCache;
+	private final long[] cachedTileRowVersions;
+	private final long[] cachedMapRowVersions;
+	private final long[] tileRowVersions;
+	private final long[] mapRowVersions;
+	// sprites intersectant chaque ligne de l'écran : bit i à 1 ssi le sprite
+	// d'index i intersecte la ligne, tenu à jour lors des écritures dans la
+	// mémoire d'attributs et des changements de taille des sprites
+	private final long[] spritesPerLine;
+
+	/**
+	 * Type énuméré représentant la nature d'une commande, stockée dans ses 3 bits
+	 * de poids fort
+	 */
+	private enum Command {
+		WRITE_VIDEO_RAM, WRITE_OAM, LINE, FRAME, COPY_OAM
+	}
+
+	/**
+	 * Type énuméré représentant les 4 octets d'informations d'un sprite
+	 */
+	private enum SpriteAttributs implements Bit {
+		Y, X, TILE_INDEX, INFO
+	}
+
+	/**
+	 * Type énuméré representant les diférents bit du dernier octet d'information
+	 * d'un sprite
+	 */
+	private enum InfoSprite implements Bit {
+		UNUSED_0, UNUSED_1, UNUSED_2, UNUSED_3, PALETTE, FLIP_H, FLIP_V, BEHIND_BG
+	}
+
+	/**
+	 * Construit un dessinateur dont les mémoires sont vides
+	 */
+	LcdRenderer() {
+		videoRam = new Ram(VIDEO_RAM_SIZE);
+		OAMram = new Ram(OAM_RAM_SIZE);
+		spriteFGMsb = new MutableBitVector(LCD_WIDTH);
+		spriteFGLsb = new MutableBitVector(LCD_WIDTH);
+		spriteFGOpacity = new MutableBitVector(LCD_WIDTH);
+		spriteBGMsb = new MutableBitVector(LCD_WIDTH);
+		spriteBGLsb = new MutableBitVector(LCD_WIDTH);
+		spriteBGOpacity = new MutableBitVector(LCD_WIDTH);
+		uncoveredMask = new MutableBitVector(LCD_WIDTH);
+		wordsFGMsb = new long[LINE_WORDS];
+		wordsFGLsb = new long[LINE_WORDS];
+		wordsFGOpacity = new long[LINE_WORDS];
+		wordsBGMsb = new long[LINE_WORDS];
+		wordsBGLsb = new long[LINE_WORDS];
+		wordsBGOpacity = new long[LINE_WORDS];
+		lineMsb = new long[LINE_WORDS];
+		lineLsb = new long[LINE_WORDS];
+		tileRows = new int[NUMBER_OF_TILES * BITS_PER_TILE_SIDE];
+		updateTileRows();
+		tilemapRowCache = new LcdImageLine[2 * 2 * LCD_FULLSIZE];
+		cachedTileRowVersions = new long[tilemapRowCache.length];
+		cachedMapRowVersions = new long[tilemapRowCache.length];
+		tileRowVersions = new long[BITS_PER_TILE_SIDE];
+		mapRowVersions = new long[TILE_MAP_ROWS];
+		spritesPerLine = new long[LCD_HEIGHT];
+		nextImageBuilder = new LcdImage.Builder(LCD_HEIGHT, LCD_WIDTH);
+		image = nextImageBuilder.build();
+	}
+
+	/**
+	 * @param offset
+	 *            : index de l'octet dans la mémoire vidéo
+	 * @param data
+	 *            : valeur 8 bits écrite
+	 * @return la commande d'écriture dans la mémoire vidéo
+	 */
+	static int videoRamWrite(int offset, int data) {
+		return command(Command.WRITE_VIDEO_RAM, (offset << Byte.SIZE) | data);
+	}
+
+	/**
+	 * @param index
+	 *            : index de l'octet dans la mémoire d'attributs
+	 * @param data
+	 *            : valeur 8 bits écrite
+	 * @return la commande d'écriture dans la mémoire d'attributs
+	 */
+	static int oamWrite(int index, int data) {
+		return command(Command.WRITE_OAM, (index << Byte.SIZE) | data);
+	}
+
+	/**
+	 * Écrit dans le tableau donné la commande de dessin de la ligne donnée
+	 *
+	 * @param commands
+	 *            : tableau de commandes
+	 * @param index
+	 *            : index auquel écrire les LINE_COMMAND_SIZE entiers de la commande
+	 * @param y
+	 *            : index de la ligne
+	 * @param winY
+	 *            : index de la ligne de la fenêtre à dessiner, ou -1 si la fenêtre
+	 *            n'est pas visible sur la ligne
+	 * @param lcdc
+	 *            : valeur du registre LCDC
+	 * @param scy
+	 *            : valeur du registre SCY
+	 * @param scx
+	 *            : valeur du registre SCX
+	 * @param wx
+	 *            : valeur du registre WX
+	 * @param bgp
+	 *            : valeur du registre BGP
+	 * @param obp0
+	 *            : valeur du registre OBP0
+	 * @param obp1
+	 *            : valeur du registre OBP1
+	 */
+	static void putLine(int[] commands, int index, int y, int winY, int lcdc, int scy, int scx, int wx, int bgp,
+			int obp0, int obp1) {
+		commands[index] = command(Command.LINE, (Bits.clip(9, winY) << 16) | (y << 8) | lcdc);
+		commands[index + 1] = (scy << 24) | (scx << 16) | (wx << 8) | bgp;
+		commands[index + 2] = (obp0 << 8) | obp1;
+	}
+
+	/**
+	 * Écrit dans le tableau donné la commande de copie du contenu de la mémoire
+	 * d'attributs donnée, p.ex. à la fin d'une copie DMA
+	 *
+	 * @param commands
+	 *            : tableau de commandes
+	 * @param index
+	 *            : index auquel écrire les OAM_COMMAND_SIZE entiers de la commande
+	 * @param OAMram
+	 *            : mémoire d'attributs des sprites à copier
+	 */
+	static void putOAM(int[] commands, int index, Ram OAMram) {
+		commands[index] = command(Command.COPY_OAM, 0);
+		for (int i = 1; i < OAM_COMMAND_SIZE; ++i) {
+			int word = 0;
+			for (int j = Integer.BYTES - 1; j >= 0; --j)
+				word = (word << Byte.SIZE) | OAMram.read((i - 1) * Integer.BYTES + j);
+			commands[index + i] = word;
+		}
+	}
+
+	private static int command(Command command, int arguments) {
+		return (command.ordinal() << COMMAND_SHIFT) | arguments;
+	}
+
+	/**
+	 * Exécute, dans l'ordre, les commandes données
+	 *
+	 * @param commands
+	 *            : tableau de commandes
+	 * @param count
+	 *            : nombre de commandes au début du tableau
+	 */
+	void execute(int[] commands, int count) {
+		for (int i = 0; i < count; ++i) {
+			int command = commands[i];
+			switch (COMMANDS[command >>> COMMAND_SHIFT]) {
+			case WRITE_VIDEO_RAM:
+				writeVideoRam(Bits.extract(command, 8, 13), Bits.clip(8, command));
+				break;
+			case WRITE_OAM:
+				writeOAM(Bits.extract(command, 8, 8), Bits.clip(8, command));
+				break;
+			case COPY_OAM:
+				for (int j = 0; j < OAM_RAM_SIZE; ++j)
+					OAMram.write(j, Bits.extract(commands[i + 1 + j / Integer.BYTES], Byte.SIZE * (j % Integer.BYTES),
+							Byte.SIZE));
+				updateSpritesPerLine();
+				i += OAM_COMMAND_SIZE - 1;
+				break;
+			case LINE:
+				computeLine(command, commands[i + 1], commands[i + 2]);
+				i += LINE_COMMAND_SIZE - 1;
+				break;
+			case FRAME:
+				if (command == START_FRAME)
+					nextImageBuilder = new LcdImage.Builder(LCD_HEIGHT, LCD_WIDTH);
+				else
+					image = nextImageBuilder.build();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return la dernière image dessinée, éventuellement par un autre fil
+	 */
+	LcdImage image() {
+		return image;
+	}
+
+	/**
+	 * Remplace le contenu des mémoires du dessinateur par celui des mémoires
+	 * données, avec lesquelles elles partagent leurs pages jusqu'à leur
+	 * modification, p.ex. après le chargement d'un état
+	 *
+	 * @param videoRam
+	 *            : mémoire vidéo
+	 * @param OAMram
+	 *            : mémoire d'attributs des sprites
+	 */
+	void synchronize(Ram videoRam, Ram OAMram) {
+		this.videoRam.copyFrom(videoRam);
+		this.OAMram.copyFrom(OAMram);
+		updateTileRows();
+		Arrays.fill(tilemapRowCache, null);
+		updateSpritesPerLine();
+	}
+
+	/**
+	 * Remplace l'état du dessinateur par celui du dessinateur donné, les mémoires
+	 * partageant leurs pages jusqu'à leur modification
+	 *
+	 * @param that
+	 *            : dessinateur à copier, dont toutes les commandes ont été
+	 *            exécutées
+	 */
+	void copyFrom(LcdRenderer that) {
+		videoRam.copyFrom(that.videoRam);
+		OAMram.copyFrom(that.OAMram);
+		System.arraycopy(that.tileRows, 0, tileRows, 0, tileRows.length);
+		Arrays.fill(tilemapRowCache, null);
+		bigSprites = that.bigSprites;
+		System.arraycopy(that.spritesPerLine, 0, spritesPerLine, 0, spritesPerLine.length);
+		// les images sont immuables et peuvent donc être partagées
+		image = that.image;
+		nextImageBuilder = that.nextImageBuilder.copy();
+	}
+
+	/**
+	 * Écrit dans le tampon donné l'image en cours de dessin ou, si elle est
+	 * terminée, l'image affichée
+	 *
+	 * @param buffer
+	 *            : tampon dans lequel écrire l'état
+	 */
+	void saveState(ByteBuffer buffer) {
+		// une fois construite, l'image affichée partage ses pixels avec le builder
+		if (!nextImageBuilder.saveState(buffer))
+			image.saveState(buffer);
+	}
+
+	/**
+	 * Lit dans le tampon donné l'image écrite par saveState
+	 *
+	 * @param buffer
+	 *            : tampon contenant l'état
+	 * @return vrai ssi une image était en cours de dessin lors de la sauvegarde
+	 */
+	boolean loadState(ByteBuffer buffer) {
+		nextImageBuilder = new LcdImage.Builder(LCD_HEIGHT, LCD_WIDTH);
+		boolean drawing = !nextImageBuilder.loadState(buffer);
+		image = drawing ? LcdImage.loadState(LCD_HEIGHT, LCD_WIDTH, buffer) : nextImageBuilder.build();
+		return drawing;
+	}
+
+	/**
+	 * Vérifie que le tampon donné contient l'image écrite par saveState, et avance
+	 * sa position jusqu'à sa fin
+	 *
+	 * @param buffer
+	 *            : tampon contenant l'état
+	 * @throws java.nio.BufferUnderflowException
+	 *             si le tampon est trop court
+	 */
+	static void checkState(ByteBuffer buffer) {
+		boolean built = buffer.get() != 0;
+		int imageBytes = LcdImage.stateSize(LCD_HEIGHT, LCD_WIDTH);
+		Stateful.skip(buffer, built ? imageBytes : 2 * imageBytes);
+	}
+
+	private void writeVideoRam(int offset, int data) {
+		videoRam.write(offset, data);
+		if (offset < TILE_DATA_SIZE) {
+			updateTileRow(offset / 2);
+			++tileRowVersions[(offset / 2) % BITS_PER_TILE_SIDE];
+		} else
+			++mapRowVersions[(offset - TILE_MAP_START) / TILES_PER_LIGNE];
+	}
+
+	/**
+	 * Met à jour la ligne de tuile donnée à partir du contenu de la mémoire vidéo
+	 *
+	 * @param row
+	 *            : index de la ligne, parmi les 8 lignes de chacune des 384 tuiles
+	 */
+	private void updateTileRow(int row) {
+		int lsb = videoRam.read(2 * row);
+		int msb = videoRam.read(2 * row + 1);
+		tileRows[row] = (Bits.reverse8(msb) << 24) | (Bits.reverse8(lsb) << 16) | (msb << 8) | lsb;
+	}
+
+	/**
+	 * Met à jour toutes les lignes de tuiles, p.ex. après le remplacement du
+	 * contenu de la mémoire vidéo
+	 */
+	private void updateTileRows() {
+		for (int row = 0; row < tileRows.length; ++row)
+			updateTileRow(row);
+	}
+
+	/**
+	 * Écrit dans la mémoire d'attributs des sprites, en tenant à jour les sprites
+	 * intersectant chaque ligne lorsque la coordonnée y d'un sprite change
+	 *
+	 * @param index
+	 *            : index de l'octet dans la mémoire d'attributs
+	 * @param data
+	 *            : valeur 8 bits à écrire
+	 */
+	private void writeOAM(int index, int data) {
+		if (index % BYTES_PER_SPRITE == SpriteAttributs.Y.index()) {
+			int sprite = index / BYTES_PER_SPRITE;
+			setSpriteLines(sprite, OAMram.read(index), false);
+			setSpriteLines(sprite, data, true);
+		}
+		OAMram.write(index, data);
+	}
+
+	/**
+	 * Ajoute ou retire le sprite donné des lignes qu'il intersecte
+	 *
+	 * @param sprite
+	 *            : index du sprite
+	 * @param y
+	 *            : coordonnée y du sprite, telle que stockée en mémoire
+	 * @param visible
+	 *            : vrai pour ajouter le sprite aux lignes, faux pour l'en retirer
+	 */
+	private void setSpriteLines(int sprite, int y, boolean visible) {
+		int spriteSize = bigSprites ? STANDARD_SPRITE_SIZE * 2 : STANDARD_SPRITE_SIZE;
+		int top = y - ADJUST_Y_SPRITE;
+		long mask = 1L << sprite;
+		for (int line = Math.max(0, top); line < Math.min(LCD_HEIGHT, top + spriteSize); ++line)
+			spritesPerLine[line] = visible ? spritesPerLine[line] | mask : spritesPerLine[line] & ~mask;
+	}
+
+	/**
+	 * Recalcule les sprites intersectant chaque ligne, p.ex. après un changement
+	 * de taille des sprites
+	 */
+	private void updateSpritesPerLine() {
+		Arrays.fill(spritesPerLine, 0);
+		for (int sprite = 0; sprite < OAM_RAM_SIZE / BYTES_PER_SPRITE; ++sprite)
+			setSpriteLines(sprite, OAMram.read(sprite * BYTES_PER_SPRITE + SpriteAttributs.Y.index()), true);
+	}
+
+	/**
+	 * Calcule la ligne décrite par la commande donnée et la stocke dans le
+	 * batisseur d'image
+	 *
+	 * @param command
+	 *            : commande de ligne, contenant l'index de la ligne, celui de la
+	 *            ligne de la fenêtre et le registre LCDC
+	 * @param registers
+	 *            : registres SCY, SCX, WX et BGP, empaquetés
+	 * @param spritePalettes
+	 *            : registres OBP0 et OBP1, empaquetés
+	 */
+	private void computeLine(int command, int registers, int spritePalettes) {
+		int lcdc = Bits.clip(8, command);
+		int y = Bits.extract(command, 8, 8);
+		int winY = Bits.extract(command, 16, 9);
+		boolean bitTileSource = Bits.test(lcdc, LCDC.TILE_SOURCE);
+		int SCY = Bits.extract(registers, 24, 8);
+		int SCX = Bits.extract(registers, 16, 8);
+		int WX = Math.max(0, Bits.extract(registers, 8, 8) - LcdController.AJUST_WX);
+		int BGP = Bits.clip(8, registers);
+		int realY = (y + SCY) % LCD_FULLSIZE;
+
+		if (Bits.test(lcdc, LCDC.OBJ_SIZE) != bigSprites) {
+			bigSprites = !bigSprites;
+			updateSpritesPerLine();
+		}
+
+		LcdImageLine bg = Bits.test(lcdc, LCDC.BG) ? tilemapRow(Bits.test(lcdc, LCDC.BG_AREA), bitTileSource, realY)
+				: EMPTY_TILEMAP_ROW;
+		LcdImageLine window = (winY < LCD_FULLSIZE) ? tilemapRow(Bits.test(lcdc, LCDC.WIN_AREA), bitTileSource, winY)
+				: null;
+		int[] sprites = new int[MAXIMUM_NUMBER_OF_SPRITES];
+		int spriteCount = Bits.test(lcdc, LCDC.OBJ) ? spritesIntersectingLine(y, sprites) : 0;
+
+		if (FUSED_COMPOSITION)
+			composeWords(y, bg, window, SCX, WX, BGP, sprites, spriteCount, spritePalettes);
+		else
+			composeVectors(y, bg, window, SCX, WX, BGP, Bits.test(lcdc, LCDC.OBJ), sprites, spriteCount,
+					spritePalettes);
+	}
+
+	/**
+	 * Compose la ligne donnée à l'aide des opérations de LcdImageLine et la
+	 * stocke dans le batisseur d'image
+	 *
+	 * @param y
+	 *            : index de la ligne
+	 * @param bg
+	 *            : ligne de 256 pixels de l'arrière-plan
+	 * @param window
+	 *            : ligne de 256 pixels de la fenêtre, ou null si elle n'est pas
+	 *            visible
+	 * @param SCX
+	 *            : abscisse de l'arrière-plan
+	 * @param WX
+	 *            : abscisse de la fenêtre à l'écran
+	 * @param BGP
+	 *            : palette de l'arrière-plan et de la fenêtre
+	 * @param objects
+	 *            : vrai ssi les sprites sont affichés
+	 * @param sprites
+	 *            : sprites intersectant la ligne, dans l'ordre d'empilement
+	 * @param spriteCount
+	 *            : nombre de sprites intersectant la ligne
+	 * @param spritePalettes
+	 *            : registres OBP0 et OBP1, empaquetés
+	 */
+	private void composeVectors(int y, LcdImageLine bg, LcdImageLine window, int SCX, int WX, int BGP,
+			boolean objects, int[] sprites, int spriteCount, int spritePalettes) {
+		// Background
+		LcdImageLine finalBG = bg.extractWrapped(SCX, LCD_WIDTH).mapColors(BGP);
+
+		// Window
+		if (window != null) {
+			LcdImageLine finalWindow = window.extractWrapped(0, LCD_WIDTH).mapColors(BGP);
+			finalBG = finalBG.join(WX, finalWindow.shift(WX));
+		}
+
+		// Sprites
+		spriteFGMsb.fill(false);
+		spriteFGLsb.fill(false);
+		spriteFGOpacity.fill(false);
+
+		if (objects) {
+			spriteBGMsb.fill(false);
+			spriteBGLsb.fill(false);
+			spriteBGOpacity.fill(false);
+
+			for (int i = 0; i < spriteCount; i++) {
+				if (Bits.test(spriteInfo(sprites[i]), InfoSprite.BEHIND_BG))
+					stackSprite(setSpriteLine(y, sprites[i], spritePalettes), spriteBGMsb, spriteBGLsb,
+							spriteBGOpacity);
+				else
+					stackSprite(setSpriteLine(y, sprites[i], spritePalettes), spriteFGMsb, spriteFGLsb,
+							spriteFGOpacity);
+			}
+
+			LcdImageLine spriteBG = new LcdImageLine(spriteBGMsb.toBitVector(), spriteBGLsb.toBitVector(),
+					spriteBGOpacity.toBitVector());
+			BitVector opacityBG = spriteBG.opacity().not().or(finalBG.opacity());
+			finalBG = spriteBG.below(opacityBG, finalBG);
+
+		}
+
+		LcdImageLine spriteFG = new LcdImageLine(spriteFGMsb.toBitVector(), spriteFGLsb.toBitVector(),
+				spriteFGOpacity.toBitVector());
+		nextImageBuilder.setLine(y, finalBG.below(spriteFG));
+
+	}
+
+	/**
+	 * Compose la ligne donnée mot par mot, en un seul passage et sans allouer de
+	 * ligne intermédiaire, puis la stocke dans le batisseur d'image : chaque mot
+	 * de 64 pixels de l'arrière-plan est extrait, passé par la palette, couvert
+	 * par la fenêtre puis par les sprites. Le résultat est identique à celui de
+	 * composeVectors.
+	 *
+	 * @param y
+	 *            : index de la ligne
+	 * @param bg
+	 *            : ligne de 256 pixels de l'arrière-plan
+	 * @param window
+	 *            : ligne de 256 pixels de la fenêtre, ou null si elle n'est pas
+	 *            visible
+	 * @param SCX
+	 *            : abscisse de l'arrière-plan
+	 * @param WX
+	 *            : abscisse de la fenêtre à l'écran
+	 * @param BGP
+	 *            : palette de l'arrière-plan et de la fenêtre
+	 * @param sprites
+	 *            : sprites intersectant la ligne, dans l'ordre d'empilement
+	 * @param spriteCount
+	 *            : nombre de sprites affichés sur la ligne
+	 * @param spritePalettes
+	 *            : registres OBP0 et OBP1, empaquetés
+	 */
+	private void composeWords(int y, LcdImageLine bg, LcdImageLine window, int SCX, int WX, int BGP, int[] sprites,
+			int spriteCount, int spritePalettes) {
+		Arrays.fill(wordsFGMsb, 0);
+		Arrays.fill(wordsFGLsb, 0);
+		Arrays.fill(wordsFGOpacity, 0);
+		Arrays.fill(wordsBGMsb, 0);
+		Arrays.fill(wordsBGLsb, 0);
+		Arrays.fill(wordsBGOpacity, 0);
+		for (int i = 0; i < spriteCount; ++i) {
+			if (Bits.test(spriteInfo(sprites[i]), InfoSprite.BEHIND_BG))
+				stackSpriteWords(y, sprites[i], spritePalettes, wordsBGMsb, wordsBGLsb, wordsBGOpacity);
+			else
+				stackSpriteWords(y, sprites[i], spritePalettes, wordsFGMsb, wordsFGLsb, wordsFGOpacity);
+		}
+
+		for (int i = 0; i < LINE_WORDS; ++i) {
+			int x = i * Long.SIZE;
+
+			// Background
+			long bgMsb = wordAt(bg.msb(), SCX + x, true);
+			long bgLsb = wordAt(bg.lsb(), SCX + x, true);
+			long msb = LcdImageLine.mapWord(BGP, 1, bgMsb, bgLsb);
+			long lsb = LcdImageLine.mapWord(BGP, 0, bgMsb, bgLsb);
+			long opacity = wordAt(bg.opacity(), SCX + x, true);
+
+			// Window
+			if (window != null) {
+				long windowMask = (WX <= x) ? -1L : (WX - x >= Long.SIZE) ? 0 : -1L << (WX - x);
+				long windowMsb = wordAt(window.msb(), x - WX, false);
+				long windowLsb = wordAt(window.lsb(), x - WX, false);
+				msb = select(windowMask, LcdImageLine.mapWord(BGP, 1, windowMsb, windowLsb), msb);
+				lsb = select(windowMask, LcdImageLine.mapWord(BGP, 0, windowMsb, windowLsb), lsb);
+				opacity = select(windowMask, wordAt(window.opacity(), x - WX, false), opacity);
+			}
+
+			// Sprites, visibles derrière l'arrière-plan là où il est transparent
+			long behind = wordsBGOpacity[i] & ~opacity;
+			msb = select(behind, wordsBGMsb[i], msb);
+			lsb = select(behind, wordsBGLsb[i], lsb);
+			lineMsb[i] = select(wordsFGOpacity[i], wordsFGMsb[i], msb);
+			lineLsb[i] = select(wordsFGOpacity[i], wordsFGLsb[i], lsb);
+		}
+		nextImageBuilder.setLine(y, lineMsb, lineLsb);
+	}
+
+	/**
+	 * Place le sprite donné sous les sprites déjà empilés dans les mots de
+	 * travail donnés : seuls les pixels qu'aucun sprite empilé ne recouvre
+	 * prennent la couleur du sprite, là où il est opaque
+	 *
+	 * @param y
+	 *            : index de la ligne
+	 * @param spriteValue
+	 *            : coordonnée x et index du sprite, empaquetés
+	 * @param spritePalettes
+	 *            : registres OBP0 et OBP1, empaquetés
+	 * @param msb
+	 *            : bits de poids fort des sprites empilés
+	 * @param lsb
+	 *            : bits de poids faible des sprites empilés
+	 * @param opacity
+	 *            : opacité des sprites empilés
+	 */
+	private void stackSpriteWords(int y, int spriteValue, int spritePalettes, long[] msb, long[] lsb,
+			long[] opacity) {
+		int row = spriteRow(y, spriteValue);
+		int palette = spritePalette(spriteValue, spritePalettes);
+		long spriteMsb = Bits.extract(row, 8, 8);
+		long spriteLsb = Bits.clip(8, row);
+		long spriteOpacity = spriteMsb | spriteLsb;
+		long mappedMsb = LcdImageLine.mapWord(palette, 1, spriteMsb, spriteLsb) & spriteOpacity;
+		long mappedLsb = LcdImageLine.mapWord(palette, 0, spriteMsb, spriteLsb) & spriteOpacity;
+
+		int xSprite = Bits.extract(spriteValue, 8, 8) - ADJUST_X_SPRITE;
+		for (int i = 0; i < LINE_WORDS; ++i) {
+			int distance = xSprite - i * Long.SIZE;
+			long uncovered = ~opacity[i] & shiftWord(spriteOpacity, distance);
+			msb[i] |= shiftWord(mappedMsb, distance) & uncovered;
+			lsb[i] |= shiftWord(mappedLsb, distance) & uncovered;
+			opacity[i] |= uncovered;
+		}
+	}
+
+	/**
+	 * @return le mot dont les bits valent ceux de that là où le masque vaut 1,
+	 *         et ceux de other ailleurs
+	 */
+	private static long select(long mask, long that, long other) {
+		return (that & mask) | (other & ~mask);
+	}
+
+	/**
+	 * @param word
+	 *            : mot à décaler
+	 * @param distance
+	 *            : distance du décalage, positive vers la gauche (les index
+	 *            croissants) et négative vers la droite
+	 * @return le mot décalé, complété par des 0
+	 */
+	private static long shiftWord(long word, int distance) {
+		if (distance >= Long.SIZE || distance <= -Long.SIZE)
+			return 0;
+		return (distance >= 0) ? word << distance : word >>> -distance;
+	}
+
+	/**
+	 * @param vector
+	 *            : vecteur dont la taille est un multiple de 64
+	 * @param start
+	 *            : index du premier bit
+	 * @param wrapped
+	 *            : vrai pour lire l'extension par enroulement du vecteur, faux
+	 *            pour son extension par 0
+	 * @return les 64 bits de l'extension du vecteur commençant à l'index donné
+	 */
+	private static long wordAt(BitVector vector, int start, boolean wrapped) {
+		int index = Math.floorDiv(start, Long.SIZE);
+		int shift = Math.floorMod(start, Long.SIZE);
+		long low = wordOf(vector, index, wrapped);
+		return (shift == 0) ? low : (low >>> shift) | (wordOf(vector, index + 1, wrapped) << (Long.SIZE - shift));
+	}
+
+	private static long wordOf(BitVector vector, int index, boolean wrapped) {
+		int words = vector.size() / Long.SIZE;
+		if (wrapped)
+			return vector.word(Math.floorMod(index, words));
+		return (index >= 0 && index < words) ? vector.word(index) : 0;
+	}
+
+	/**
+	 * Place la ligne du sprite donné sous les sprites déjà empilés dans les
+	 * vecteurs de travail donnés, sans allouer de ligne intermédiaire : seuls les
+	 * pixels qu'aucun sprite empilé ne recouvre prennent la couleur du sprite
+	 *
+	 * @param sprite
+	 *            : ligne du sprite à empiler
+	 * @param msb
+	 *            : bits de poids fort des sprites empilés
+	 * @param lsb
+	 *            : bits de poids faible des sprites empilés
+	 * @param opacity
+	 *            : opacité des sprites empilés
+	 */
+	private void stackSprite(LcdImageLine sprite, MutableBitVector msb, MutableBitVector lsb,
+			MutableBitVector opacity) {
+		uncoveredMask.set(opacity).not();
+		msb.select(uncoveredMask, sprite.msb());
+		lsb.select(uncoveredMask, sprite.lsb());
+		opacity.or(sprite.opacity());
+	}
+
+	/**
+	 * Retourne la ligne de 256 pixels donnée de l'arrière-plan ou de la fenêtre,
+	 * en la composant seulement si elle n'est pas en cache ou si la carte des
+	 * tuiles ou les images des tuiles dont elle dépend ont été modifiées depuis
+	 *
+	 * @param area
+	 *            : vrai pour la plage de tuiles 9C00, faux pour 9800
+	 * @param bitTileSource
+	 *            : vrai si le bit Tile source de LCDC vaut 1
+	 * @param y
+	 *            : index de la ligne dans l'image de 256 pixels
+	 * @return la ligne, avant extraction et application de la palette
+	 */
+	private LcdImageLine tilemapRow(boolean area, boolean bitTileSource, int y) {
+		int areaIndex = area ? 1 : 0;
+		int index = (2 * areaIndex + (bitTileSource ? 1 : 0)) * LCD_FULLSIZE + y;
+		long tileRowVersion = tileRowVersions[y % BITS_PER_TILE_SIDE];
+		long mapRowVersion = mapRowVersions[areaIndex * TILES_PER_LIGNE + y / BITS_PER_TILE_SIDE];
+
+		if (tilemapRowCache[index] == null || cachedTileRowVersions[index] != tileRowVersion
+				|| cachedMapRowVersions[index] != mapRowVersion) {
+			LcdImageLine.Builder line = new LcdImageLine.Builder(LCD_FULLSIZE);
+			setValueLine(y, line, bitTileSource, AddressMap.BG_DISPLAY_DATA[areaIndex],
+					AddressMap.TILE_SOURCE[bitTileSource ? 1 : 0]);
+			tilemapRowCache[index] = line.build();
+			cachedTileRowVersions[index] = tileRowVersion;
+			cachedMapRowVersions[index] = mapRowVersion;
+		}
+		return tilemapRowCache[index];
+	}
+
+	/**
+	 * Calcule réellement la ligne
+	 *
+	 * @param y
+	 *            : index de la ligne
+	 * @param line
+	 *            : ligne à construire
+	 * @param bitTileSource
+	 *            : vrai si le bit Tile source de LCDC vaut 1
+	 * @param tileAddressStart
+	 *            : plage [980016 à 9C0016] ou plage [9C0016 à A00016] obtenue à
+	 *            partir de AddressMap.BG_DISPLAY_DATA
+	 * @param tileImageStart
+	 *            : plaqe 8000 ou 8800 obtenue à partir de AddressMap.TILE_SOURCE
+	 */
+	private void setValueLine(int y, LcdImageLine.Builder line, boolean bitTileSource, int tileAddressStart,
+			int tileImageStart) {
+
+		int tileMapStart = tileAddressStart - VIDEO_RAM_START + TILES_PER_LIGNE * (y / BITS_PER_TILE_SIDE);
+		for (int x = 0; x < TILES_PER_LIGNE; ++x) {
+			// obtient les 8 bits de poids faible de l'index de la tuile
+			int tileIndex = videoRam.read(tileMapStart + x);
+
+			// sert à mettre à jour tileImageStart (de 0x8800 à 0x9000) si besoin
+			int adjustPlage = (!bitTileSource && tileIndex < MID_INTERVAL_VALUE_TILE_INDEX) ? ADJUST_PLAGE_TILE : 0;
+
+			// sert à mettre à jour tileIndex en retirant 0x80 si besoin
+			int adjustTileIndex = (!bitTileSource && (tileIndex >= MID_INTERVAL_VALUE_TILE_INDEX))
+					? -MID_INTERVAL_VALUE_TILE_INDEX
+					: 0;
+
+			int tile = (tileImageStart + adjustPlage - VIDEO_RAM_START) / BYTES_PER_TILE + tileIndex + adjustTileIndex;
+			int row = tileRows[tile * BITS_PER_TILE_SIDE + y % BITS_PER_TILE_SIDE];
+			line.setBytes(x, row >>> 24, Bits.clip(8, row >>> 16));
+		}
+
+	}
+
+	/**
+	 * Calcule la ligne correspondant au sprite donné, dans la ligne y
+	 *
+	 * @param y
+	 *            : ligne à partir de laquelle on veut calculer les sprites
+	 * @param spriteValue
+	 *            : valeur empaquetée avec dans les 8 bits de poids fort la
+	 *            coordonée x du sprite et l'index du sprite dans les 8 bits de
+	 *            poids faible
+	 * @param spritePalettes
+	 *            : registres OBP0 et OBP1, empaquetés
+	 * @return : la ligne correspondant au sprite, shiftée et mapé avec les bonnes
+	 *         couleurs
+	 */
+	private LcdImageLine setSpriteLine(int y, int spriteValue, int spritePalettes) {
+		int row = spriteRow(y, spriteValue);
+		int xSprite = Bits.extract(spriteValue, 8, 8) - ADJUST_X_SPRITE;
+		return new LcdImageLine.Builder(LCD_WIDTH).setBytes(0, Bits.extract(row, 8, 8), Bits.clip(8, row)).build()
+				.shift(xSprite).mapColors(spritePalette(spriteValue, spritePalettes));
+	}
+
+	/**
+	 * @param spriteValue
+	 *            : coordonnée x et index du sprite, empaquetés
+	 * @return l'octet d'information du sprite donné
+	 */
+	private int spriteInfo(int spriteValue) {
+		return OAMram.read(BYTES_PER_SPRITE * Bits.clip(8, spriteValue) + SpriteAttributs.INFO.index());
+	}
+
+	/**
+	 * @param spriteValue
+	 *            : coordonnée x et index du sprite, empaquetés
+	 * @param spritePalettes
+	 *            : registres OBP0 et OBP1, empaquetés
+	 * @return la palette du sprite donné
+	 */
+	private int spritePalette(int spriteValue, int spritePalettes) {
+		return (Bits.test(spriteInfo(spriteValue), InfoSprite.PALETTE)) ? Bits.clip(8, spritePalettes)
+				: Bits.extract(spritePalettes, 8, 8);
+	}
+
+	/**
+	 * Calcule la ligne de l'image du sprite donné qui intersecte la ligne y,
+	 * retournée si besoin
+	 *
+	 * @param y
+	 *            : index de la ligne
+	 * @param spriteValue
+	 *            : coordonnée x et index du sprite, empaquetés
+	 * @return les 8 bits de poids fort (bits 15 à 8) et de poids faible (bits 7 à
+	 *         0) de la ligne du sprite, le pixel de gauche dans le bit de poids
+	 *         faible de chaque octet
+	 */
+	private int spriteRow(int y, int spriteValue) {
+		int spriteIndex = Bits.clip(8, spriteValue);
+		int ySprite = OAMram.read(BYTES_PER_SPRITE * spriteIndex + SpriteAttributs.Y.index()) - ADJUST_Y_SPRITE;
+		int tileIndex = OAMram.read(BYTES_PER_SPRITE * spriteIndex + SpriteAttributs.TILE_INDEX.index());
+		int infoSprite = spriteInfo(spriteValue);
+		int spriteSize = bigSprites ? STANDARD_SPRITE_SIZE * 2 : STANDARD_SPRITE_SIZE;
+		int realIndex = (Bits.test(infoSprite, InfoSprite.FLIP_V)) ? (spriteSize - 1) - (y - ySprite) : y - ySprite;
+
+		// sans retournement horizontal, les octets doivent être inversés
+		int row = tileRows[tileIndex * BITS_PER_TILE_SIDE + realIndex];
+		if (!Bits.test(infoSprite, InfoSprite.FLIP_H))
+			row >>>= 16;
+		return Bits.clip(16, row);
+	}
+
+	/**
+	 * Calcule les sprites à afficher sur une ligne donnée (y) dont l'image
+	 * intersecte la ligne donnée, stocke ceux-ci dans le tableau passé en paramètre
+	 * et le trie selon l'ordre d'empilement.
+	 *
+	 * @param y
+	 *            : ligne à partir de laquelle on veut calculer les sprites
+	 * @param sprites
+	 *            : tableau contenant les futurs index des (au plus 10) sprites
+	 * @return : le nombre de de sprites interectant y
+	 */
+	private int spritesIntersectingLine(int y, int[] sprites) {
+		int spriteNumber = 0;
+
+		// les sprites sont parcourus par index croissant
+		for (long visible = spritesPerLine[y]; visible != 0 && spriteNumber < sprites.length; visible &= visible - 1) {
+			int spriteIndex = Long.numberOfTrailingZeros(visible);
+			int xSprite = OAMram.read(BYTES_PER_SPRITE * spriteIndex + SpriteAttributs.X.index());
+			sprites[spriteNumber] = (xSprite << 8) | spriteIndex;
+			++spriteNumber;
+		}
+
+		Arrays.sort(sprites, 0, spriteNumber);
+		return spriteNumber;
+	}
+}
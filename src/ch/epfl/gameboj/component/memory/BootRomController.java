@@ -1,17 +1,21 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.RomSwitchListener;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 
-public final class BootRomController implements Component, BootRom {
+public final class BootRomController implements Component, BootRom, Stateful {
 
 	private final Cartridge cartridge;
 	private boolean bootRomUnable;
 	private final Rom bootRom;
+	private RomSwitchListener romSwitchListener;
 
 	/**
 	 * Construit un contrôleur de mémoire de démarrage auquel la cartouche donnée
@@ -27,6 +31,17 @@ public final class BootRomController implements Component, BootRom {
 		bootRom = new Rom(DATA);
 	}
 
+	/**
+	 * Définit l'auditeur informé de la désactivation de la mémoire de démarrage,
+	 * qui rend visible le début de la mémoire morte de la cartouche
+	 * 
+	 * @param listener
+	 *            : auditeur à informer, ou null pour n'en informer aucun
+	 */
+	public void setRomSwitchListener(RomSwitchListener listener) {
+		romSwitchListener = listener;
+	}
+
 	@Override
 	public int read(int address) {
 		Preconditions.checkBits16(address);
@@ -41,10 +56,45 @@ public final class BootRomController implements Component, BootRom {
 		Preconditions.checkBits16(address);
 		Preconditions.checkBits8(data);
 
-		if (address == AddressMap.REG_BOOT_ROM_DISABLE) {
+		if (address == AddressMap.REG_BOOT_ROM_DISABLE && bootRomUnable) {
 			bootRomUnable = false;
+			if (romSwitchListener != null)
+				romSwitchListener.romSwitched(AddressMap.BOOT_ROM_START, AddressMap.BOOT_ROM_END);
 		}
 		cartridge.write(address, data);
 
 	}
+
+	/**
+	 * Remplace l'état du contrôleur par celui du contrôleur donné (la cartouche
+	 * n'est pas copiée)
+	 * 
+	 * @param that
+	 *            : contrôleur à copier, non null
+	 */
+	public void copyFrom(BootRomController that) {
+		bootRomUnable = that.bootRomUnable;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+		buffer.put((byte) (bootRomUnable ? 1 : 0));
+	}
+
+	@Override
+	public void loadState(ByteBuffer buffer) {
+		bootRomUnable = buffer.get() != 0;
+	}
+
+	@Override
+	public void checkState(ByteBuffer buffer) {
+		Stateful.skip(buffer, Byte.BYTES);
+	}
+
+	@Override
+	public int[][] addressRanges() {
+		return new int[][] { { AddressMap.CARTRIDGE_ROM_START, AddressMap.CARTRIDGE_ROM_END },
+				{ AddressMap.CARTRIDGE_RAM_START, AddressMap.CARTRIDGE_RAM_END },
+				{ AddressMap.REG_BOOT_ROM_DISABLE, AddressMap.REG_BOOT_ROM_DISABLE + 1 } };
+	}
 }
\ No newline at end of file
@@ -1,9 +1,27 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Stateful;
+
+/**
+ * Mémoire vive découpée en pages de 256 octets, qui peuvent être partagées avec
+ * d'autres mémoires (copies, mémoire nulle initiale) : une page partagée n'est
+ * dupliquée que lors de la première écriture dans celle-ci.
+ */
+public final class Ram implements Stateful {
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	// page nulle, partagée par toutes les mémoires et jamais modifiée
+	private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
 
-public final class Ram {
-	byte[] data;
+	private final int size;
+	private final byte[][] pages;
+	// owned[i] est vrai ssi la page i n'appartient qu'à cette mémoire
+	private final boolean[] owned;
 
 	/**
 	 * Construit une nouvelle mémoire vive de taille donnée (en octets) ou lève
@@ -14,14 +32,17 @@ public final class Ram {
 	 */
 	public Ram(int size) {
 		Preconditions.checkArgument(size >= 0);
-		data = new byte[size];
+		this.size = size;
+		pages = new byte[(size + PAGE_SIZE - 1) >>> PAGE_BITS][];
+		owned = new boolean[pages.length];
+		Arrays.fill(pages, ZERO_PAGE);
 	}
 
 	/**
 	 * @return retourne la taille, en octets, de la mémoire
 	 */
 	public int size() {
-		return data.length;
+		return size;
 	}
 
 	/**
@@ -35,8 +56,8 @@ public final class Ram {
 	 * @return l'octet lu à l'index donné
 	 */
 	public int read(int index) {
-		if (index >= 0 && index < size()) {
-			return Byte.toUnsignedInt(data[index]);
+		if (index >= 0 && index < size) {
+			return Byte.toUnsignedInt(pages[index >>> PAGE_BITS][index & PAGE_MASK]);
 		} else {
 			throw new IndexOutOfBoundsException();
 		}
@@ -55,11 +76,79 @@ public final class Ram {
 	 *            : nouvelle valeur de 8 bits à stocker dans la ram
 	 */
 	public void write(int index, int value) {
-		if (index >= 0 && index < size()) {
+		if (index >= 0 && index < size) {
 			Preconditions.checkArgument(value >= 0 && value <= 255);
-			data[index] = (byte) value;
+			ownedPage(index >>> PAGE_BITS)[index & PAGE_MASK] = (byte) value;
 		} else {
 			throw new IndexOutOfBoundsException();
 		}
 	}
+
+	/**
+	 * Remplace le contenu de la mémoire par celui de la mémoire donnée, de même
+	 * taille, en partageant ses pages : celles-ci ne seront dupliquées, par l'une
+	 * ou l'autre des mémoires, que lors de leur première modification
+	 * 
+	 * @param that
+	 *            : mémoire à copier, non nulle et de même taille
+	 * @throws IllegalArgumentException
+	 *             si les mémoires n'ont pas la même taille
+	 */
+	public void copyFrom(Ram that) {
+		Preconditions.checkArgument(that.size == size);
+		System.arraycopy(that.pages, 0, pages, 0, pages.length);
+		Arrays.fill(owned, false);
+		Arrays.fill(that.owned, false);
+	}
+
+	/**
+	 * @return une nouvelle mémoire de même contenu, partageant ses pages avec
+	 *         celle-ci
+	 */
+	public Ram fork() {
+		Ram fork = new Ram(size);
+		fork.copyFrom(this);
+		return fork;
+	}
+
+	/**
+	 * @param page
+	 *            : index de la page
+	 * @return la page d'index donné, après l'avoir dupliquée si elle était
+	 *         partagée
+	 */
+	private byte[] ownedPage(int page) {
+		if (!owned[page]) {
+			pages[page] = pages[page].clone();
+			owned[page] = true;
+		}
+		return pages[page];
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+		for (int page = 0; page < pages.length; ++page)
+			buffer.put(pages[page], 0, pageLength(page));
+	}
+
+	@Override
+	public void loadState(ByteBuffer buffer) {
+		for (int page = 0; page < pages.length; ++page)
+			buffer.get(ownedPage(page), 0, pageLength(page));
+	}
+
+	@Override
+	public void checkState(ByteBuffer buffer) {
+		Stateful.skip(buffer, size);
+	}
+
+	/**
+	 * @param page
+	 *            : index de la page
+	 * @return le nombre d'octets de la page d'index donné appartenant à la
+	 *         mémoire, la dernière page pouvant être incomplète
+	 */
+	private int pageLength(int page) {
+		return Math.min(PAGE_SIZE, size - (page << PAGE_BITS));
+	}
 }
@@ -102,4 +102,9 @@ public final class RamController implements Component {
 		}
 
 	}
+
+	@Override
+	public int[][] addressRanges() {
+		return new int[][] { { startAddress, endAddress } };
+	}
 }
@@ -1,12 +1,27 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ch.epfl.gameboj.Preconditions;
 
 public final class Rom {
-	private final byte[] data;
+	// dernière projection de chaque fichier, partagée par toutes les cartouches
+	// du processus, indexée par chemin canonique
+	private static final Map<String, MappedFile> MAPPED_ROMS = new ConcurrentHashMap<>();
+
+	private final ByteBuffer data;
 
 	/**
 	 * Construit une mémoire morte dont le contenu et la taille sont ceux du tableau
@@ -19,14 +34,78 @@ public final class Rom {
 	public Rom(byte[] data) {
 		Objects.requireNonNull(data);
 		Preconditions.checkArgument(data.length >= 0);
-		this.data = Arrays.copyOf(data, data.length);
+		this.data = ByteBuffer.wrap(Arrays.copyOf(data, data.length));
+	}
+
+	/**
+	 * Construit une mémoire morte dont le contenu est celui, non copié, du tampon
+	 * donné, entre sa position et sa limite. Le contenu du tampon ne doit plus être
+	 * modifié ensuite.
+	 * 
+	 * @param data
+	 *            : tampon contenant les octets de la rom, non null
+	 */
+	public Rom(ByteBuffer data) {
+		this.data = Objects.requireNonNull(data).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Retourne la mémoire morte dont le contenu est celui du fichier donné,
+	 * projeté en mémoire au moyen de FileChannel.map. Les projections sont
+	 * partagées par tout le processus : charger plusieurs fois le même fichier,
+	 * dont la taille et la date de modification n'ont pas changé, retourne la même
+	 * instance, sans projeter à nouveau le fichier. Seule la projection la plus
+	 * récente d'un fichier est conservée.
+	 * 
+	 * @param file
+	 *            : fichier contenant les octets de la rom, non null
+	 * @return la mémoire morte correspondant au contenu du fichier
+	 * @throws IOException
+	 *             en cas d'erreur d'entrée-sortie, y compris si le fichier donné
+	 *             n'existe pas
+	 */
+	public static Rom ofFile(File file) throws IOException {
+		Path path = Objects.requireNonNull(file).getCanonicalFile().toPath();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		try {
+			return MAPPED_ROMS.compute(path.toString(), (k, mapped) -> {
+				if (mapped != null && mapped.size == size && mapped.lastModified == lastModified)
+					return mapped;
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+					return new MappedFile(size, lastModified,
+							new Rom(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).rom;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Projection d'un fichier, valable tant que la taille et la date de
+	 * modification du fichier sont celles enregistrées
+	 */
+	private static final class MappedFile {
+		private final long size;
+		private final long lastModified;
+		private final Rom rom;
+
+		private MappedFile(long size, long lastModified, Rom rom) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.rom = rom;
+		}
 	}
 
 	/**
 	 * @return retourne la taille, en octets, de la mémoire
 	 */
 	public int size() {
-		return data.length;
+		return data.capacity();
 	}
 
 	/**
@@ -40,8 +119,8 @@ public final class Rom {
 	 * @return l'octet lu à l'index donné dans la mémoire
 	 */
 	public int read(int index) {
-		Objects.checkIndex(index, data.length);
-		return Byte.toUnsignedInt(data[index]);
+		Objects.checkIndex(index, data.capacity());
+		return Byte.toUnsignedInt(data.get(index));
 	}
 
 }
@@ -0,0 +1,229 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.RewindBuffer;
+import ch.epfl.gameboj.batch.Movie;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+/**
+ * Fil d'exécution simulant le GameBoy en temps réel, indépendamment du fil
+ * javafx : les images produites lui sont transmises au travers d'un triple
+ * tampon, et les touches pressées lui parviennent au travers d'une file sans
+ * verrou. Le GameBoy ne doit plus être utilisé que par ce fil une fois démarré.
+ */
+public final class EmulationThread extends Thread {
+
+	private static final long NANOSECONDS_PER_IMAGE = (long) (LcdController.CYCLES_PER_IMAGE
+			/ GameBoy.CYCLES_PER_NANOSECOND);
+	private static final int REWIND_FRAMES = 30 * 60;
+	private static final int REWIND_CAPACITY = 8 << 20;
+	// en vitesse illimitée, une image sur 16 seulement est dessinée
+	private static final int UNLIMITED_FRAME_SKIP = 15;
+
+	private final GameBoy gameBoy;
+	private final TripleBuffer frames;
+	private final Queue<JoypadEvent> joypadEvents;
+	private final RewindBuffer rewindBuffer;
+	private final Movie.Recorder recorder;
+	private volatile boolean running;
+	private volatile boolean rewinding;
+	private volatile double speed;
+
+	/**
+	 * Événement du clavier de jeu, transmis du fil javafx au fil d'émulation
+	 */
+	private static final class JoypadEvent {
+		private final Joypad.Key key;
+		private final boolean pressed;
+
+		private JoypadEvent(Joypad.Key key, boolean pressed) {
+			this.key = key;
+			this.pressed = pressed;
+		}
+	}
+
+	/**
+	 * Construit le fil d'émulation du GameBoy donné
+	 *
+	 * @param gameBoy
+	 *            : GameBoy à simuler, non null
+	 */
+	public EmulationThread(GameBoy gameBoy) {
+		super("gameboj-emulation");
+		this.gameBoy = Objects.requireNonNull(gameBoy);
+		frames = new TripleBuffer(LcdController.LCD_WIDTH * LcdController.LCD_HEIGHT);
+		joypadEvents = new ConcurrentLinkedQueue<>();
+		recorder = new Movie.Recorder(gameBoy);
+		rewindBuffer = new RewindBuffer(REWIND_FRAMES, REWIND_CAPACITY);
+		gameBoy.setFrameListener(rewindBuffer::record);
+		// les lignes sont dessinées par un autre cœur pendant la simulation
+		gameBoy.lcdController().setParallelRendering(Runtime.getRuntime().availableProcessors() > 1);
+		running = true;
+		speed = 1;
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		// instant réel et cycle à partir desquels la simulation avance à la vitesse
+		// courante
+		long start = System.nanoTime();
+		long startCycle = gameBoy.cycles();
+		double currentSpeed = 1;
+		LcdImage lastImage = null;
+
+		while (running) {
+			for (JoypadEvent event = joypadEvents.poll(); event != null; event = joypadEvents.poll()) {
+				if (event.pressed)
+					recorder.keyPressed(event.key);
+				else
+					recorder.keyReleased(event.key);
+			}
+
+			// lu une seule fois, afin que la tranche soit cadencée comme elle est simulée
+			boolean rewindingNow = rewinding;
+			if (speed != currentSpeed || rewindingNow) {
+				currentSpeed = speed;
+				gameBoy.lcdController().setFrameSkip(frameSkip(currentSpeed));
+				start = System.nanoTime();
+				startCycle = gameBoy.cycles();
+			}
+
+			if (rewindingNow) {
+				// remonte d'une image par image affichée, quelle que soit la vitesse
+				if (rewindBuffer.frames() > 1) {
+					rewindBuffer.rewind(gameBoy, 1);
+					// les touches postérieures à l'état restauré n'ont plus eu lieu
+					recorder.truncate();
+				}
+				startCycle = gameBoy.cycles();
+			} else if (currentSpeed == Double.POSITIVE_INFINITY) {
+				// simule aussi vite que possible durant le temps d'une image
+				long deadline = System.nanoTime() + NANOSECONDS_PER_IMAGE;
+				do {
+					gameBoy.runUntil(gameBoy.cycles() + LcdController.CYCLES_PER_IMAGE);
+				} while (System.nanoTime() < deadline && running);
+			} else {
+				long elapsed = System.nanoTime() - start;
+				gameBoy.runUntil(Math.max(gameBoy.cycles(),
+						startCycle + (long) (elapsed * GameBoy.CYCLES_PER_NANOSECOND * currentSpeed)));
+			}
+
+			LcdImage image = gameBoy.lcdController().currentImage();
+			if (image != lastImage) {
+				ImageConverter.toArgb(image, frames.backBuffer());
+				frames.publish();
+				lastImage = image;
+			}
+
+			// attend la fin de l'image suivante, en temps réel ; le retour en arrière
+			// est cadencé ainsi même en vitesse illimitée
+			if (currentSpeed != Double.POSITIVE_INFINITY || rewindingNow) {
+				long next = (long) ((gameBoy.cycles() - startCycle) / (GameBoy.CYCLES_PER_NANOSECOND * currentSpeed))
+						+ NANOSECONDS_PER_IMAGE;
+				LockSupport.parkNanos(Math.max(0, next - (System.nanoTime() - start)));
+			}
+		}
+		gameBoy.lcdController().setParallelRendering(false);
+	}
+
+	/**
+	 * @param speed
+	 *            : vitesse de simulation
+	 * @return le nombre d'images à ne pas dessiner entre deux images dessinées
+	 *         pour la vitesse donnée, de sorte qu'environ une image soit dessinée
+	 *         par image affichée
+	 */
+	private static int frameSkip(double speed) {
+		return (speed == Double.POSITIVE_INFINITY) ? UNLIMITED_FRAME_SKIP : Math.max(0, (int) Math.ceil(speed) - 1);
+	}
+
+	/**
+	 * Demande l'arrêt du fil, qui se termine à la fin de l'image en cours
+	 */
+	public void terminate() {
+		running = false;
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Retourne le film des touches transmises au GameBoy depuis le démarrage du
+	 * fil, sans celles annulées par un retour en arrière ; à n'appeler qu'une fois
+	 * le fil terminé
+	 * 
+	 * @return le film de la partie
+	 */
+	public Movie movie() {
+		return recorder.build();
+	}
+
+	/**
+	 * Change la vitesse de simulation, p.ex. pour avancer rapidement ; au-delà du
+	 * temps réel, les images qui ne peuvent pas être affichées ne sont pas
+	 * dessinées
+	 * 
+	 * @param speed
+	 *            : multiple du temps réel, strictement positif, ou
+	 *            Double.POSITIVE_INFINITY pour simuler aussi vite que possible
+	 * @throws IllegalArgumentException
+	 *             si la vitesse n'est pas strictement positive
+	 */
+	public void setSpeed(double speed) {
+		Preconditions.checkArgument(speed > 0);
+		this.speed = speed;
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Active ou désactive le retour en arrière : tant qu'il est actif, la
+	 * simulation remonte les 30 dernières secondes, image par image, au lieu
+	 * d'avancer
+	 * 
+	 * @param rewinding
+	 *            : vrai ssi la simulation doit remonter le temps
+	 */
+	public void setRewinding(boolean rewinding) {
+		this.rewinding = rewinding;
+	}
+
+	/**
+	 * Retourne, au format ARGB, la dernière image produite si elle n'a pas encore
+	 * été lue ; à n'appeler que depuis un seul fil (celui de javafx)
+	 *
+	 * @return les pixels de la dernière image, ligne par ligne, ou null si aucune
+	 *         nouvelle image n'a été produite depuis l'appel précédent
+	 */
+	public int[] takeFrame() {
+		return frames.takeFront();
+	}
+
+	/**
+	 * Transmet au GameBoy la pression d'une touche, prise en compte avant la
+	 * prochaine tranche de simulation
+	 *
+	 * @param key
+	 *            : touche pressée, non nulle
+	 */
+	public void keyPressed(Joypad.Key key) {
+		joypadEvents.add(new JoypadEvent(Objects.requireNonNull(key), true));
+	}
+
+	/**
+	 * Transmet au GameBoy le relâchement d'une touche, pris en compte avant la
+	 * prochaine tranche de simulation
+	 *
+	 * @param key
+	 *            : touche relâchée, non nulle
+	 */
+	public void keyReleased(Joypad.Key key) {
+		joypadEvents.add(new JoypadEvent(Objects.requireNonNull(key), false));
+	}
+}
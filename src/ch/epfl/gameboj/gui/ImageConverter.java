@@ -2,6 +2,7 @@ package ch.epfl.gameboj.gui;
 
 import java.util.Objects;
 
+import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.component.lcd.LcdImage;
 import javafx.scene.image.*;
 
@@ -13,27 +14,57 @@ public final class ImageConverter {
 	private static final int COLOR_3 = 0xFF000000;
 	private static int[] COLOR_MAP = { COLOR_0, COLOR_1, COLOR_2, COLOR_3 };
 
+	private final WritableImage image;
+
 	/**
-	 * Sert a convertir une image LcdImage en une image javafx
+	 * Construit un convertisseur réutilisant une seule image javafx, de la taille
+	 * donnée, dont le contenu est remplacé à chaque nouvelle image LCD
 	 * 
-	 * @param image
-	 *            : image à convertir, non nulle
-	 * @return : l'image javafx correspondante
+	 * @param width
+	 *            : largeur des images à convertir, strictement positive
+	 * @param height
+	 *            : hauteur des images à convertir, strictement positive
 	 */
-	public static javafx.scene.image.Image convert(LcdImage image) {
-		Objects.requireNonNull(image);
-
-		WritableImage convert = new WritableImage(image.width(), image.height());
-		PixelWriter writer = convert.getPixelWriter();
+	public ImageConverter(int width, int height) {
+		image = new WritableImage(width, height);
+	}
 
-		for (int y = 0; y < image.height(); ++y) {
-			for (int x = 0; x < image.width(); ++x) {
-				int argb = COLOR_MAP[image.get(x, y)];
-				writer.setArgb(x, y, argb);
-			}
-		}
+	/**
+	 * @return l'image javafx, toujours la même, dans laquelle sont écrites les
+	 *         images converties
+	 */
+	public javafx.scene.image.Image image() {
+		return image;
+	}
 
-		return convert;
+	/**
+	 * Écrit dans l'image javafx réutilisée les pixels donnés, déjà convertis au
+	 * format ARGB
+	 * 
+	 * @param pixels
+	 *            : couleurs ARGB des pixels, ligne par ligne, de la taille du
+	 *            convertisseur. Doit être non null
+	 * @throws IllegalArgumentException
+	 *             si le tableau n'a pas la taille du convertisseur
+	 */
+	public void update(int[] pixels) {
+		int width = (int) image.getWidth();
+		int height = (int) image.getHeight();
+		Preconditions.checkArgument(pixels.length == width * height);
+		image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+	}
 
+	/**
+	 * Convertit l'image LCD donnée au format ARGB, dans le tableau donné
+	 * 
+	 * @param image
+	 *            : image à convertir, non nulle
+	 * @param destination
+	 *            : tableau recevant les couleurs des pixels, ligne par ligne, d'une
+	 *            taille au moins égale au nombre de pixels de l'image
+	 */
+	public static void toArgb(LcdImage image, int[] destination) {
+		Objects.requireNonNull(image);
+		image.toPixels(COLOR_MAP, destination);
 	}
 }
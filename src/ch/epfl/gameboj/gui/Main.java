@@ -1,6 +1,8 @@
 package ch.epfl.gameboj.gui;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -22,11 +24,15 @@ import javafx.stage.Stage;
 
 public final class Main extends Application {
 	
-	private long start;
 	private GameBoy gb;
-	private javafx.scene.image.Image image;
+	private Path movieFile;
+	private EmulationThread emulation;
+	private ImageConverter converter;
 	private static final Map<String, Joypad.Key> KEYS = Map.of(KeyCode.A.getChar(), Joypad.Key.A, KeyCode.B.getChar(),
 			Joypad.Key.B, KeyCode.SPACE.getChar(), Joypad.Key.SELECT, KeyCode.S.getChar(), Joypad.Key.START);
+	// vitesses successivement choisies par la touche T, la dernière étant illimitée
+	private static final double[] SPEEDS = { 1, 2, 4, 8, Double.POSITIVE_INFINITY };
+	private int speedIndex;
 	private static final Map<KeyCode, Joypad.Key> DIRECTION = Map.of(KeyCode.RIGHT, Joypad.Key.RIGHT, KeyCode.LEFT,
 			Joypad.Key.LEFT, KeyCode.UP, Joypad.Key.UP, KeyCode.DOWN, Joypad.Key.DOWN);
 
@@ -34,8 +40,9 @@ public final class Main extends Application {
 	 * Lance le démarrage de l'application javaFx
 	 * 
 	 * @param args
-	 *            : doit contenir une seule chaine représentant le fichier Gamboy
-	 *            auquel on veut jouer. Doit être non null.
+	 *            : doit contenir une chaine représentant le fichier Gamboy
+	 *            auquel on veut jouer, et facultativement le fichier .gbm dans
+	 *            lequel enregistrer le film de la partie. Doit être non null.
 	 * 
 	 */
 	public static void main(String[] args) {
@@ -47,25 +54,30 @@ public final class Main extends Application {
 	 * 
 	 * @see javafx.application.Application#start(javafx.stage.Stage)
 	 * 
-	 * @Throws IllegalArgumentException si args n'est pas de longueur 1 et ne
-	 * contient pas une chaine qui si termine par ".gb"
+	 * @Throws IllegalArgumentException si args n'est pas de longueur 1 ou 2 et
+	 * ne contient pas une chaine qui si termine par ".gb", suivie éventuellement
+	 * d'une chaine qui se termine par ".gbm"
 	 */
 	@Override
 	public void start(Stage arg0) throws Exception {
 
 		// Validation des arguments et création de Gamboy
 		List<String> parameters = getParameters().getRaw();
-		Preconditions.checkArgument(parameters.size() == 1);
+		Preconditions.checkArgument(parameters.size() == 1 || parameters.size() == 2);
 		Objects.requireNonNull(parameters.get(0));
 		Preconditions.checkArgument(parameters.get(0).endsWith(".gb"));
-		if (parameters.size() != 1 || parameters.get(0) == null) {
-			System.exit(1);
+		if (parameters.size() == 2) {
+			Preconditions.checkArgument(parameters.get(1).endsWith(".gbm"));
+			movieFile = Paths.get(parameters.get(1));
 		}
 		File romFile = new File(parameters.get(0));
-		gb = new GameBoy(Cartridge.ofFile(romFile));
+		// un film se rejoue sans fichier de sauvegarde : la partie enregistrée ne
+		// doit donc pas en dépendre
+		gb = new GameBoy(Cartridge.ofFile(romFile, movieFile == null));
 
 		// Création de l'interface JavaFx
-		ImageView imageV = new ImageView();
+		converter = new ImageConverter(LcdController.LCD_WIDTH, LcdController.LCD_HEIGHT);
+		ImageView imageV = new ImageView(converter.image());
 		imageV.setFitWidth(LcdController.LCD_WIDTH * 2);
 		imageV.setFitHeight(LcdController.LCD_HEIGHT * 2);
 		BorderPane root = new BorderPane(imageV);
@@ -82,28 +94,61 @@ public final class Main extends Application {
 
 		// Gestion des controles
 		imageV.setOnKeyPressed((event) -> {
+			if (event.getCode() == KeyCode.BACK_SPACE)
+				emulation.setRewinding(true);
+			if (event.getCode() == KeyCode.T) {
+				speedIndex = (speedIndex + 1) % SPEEDS.length;
+				emulation.setSpeed(SPEEDS[speedIndex]);
+				arg0.setTitle(speedIndex == 0 ? "GameBoy" : "GameBoy (" + speedLabel(SPEEDS[speedIndex]) + ")");
+			}
 			Joypad.Key key = DIRECTION.getOrDefault(event.getCode(), KEYS.get(event.getText().toUpperCase()));
 			if (key != null)
-				gb.joypad().keyPressed(key);
+				emulation.keyPressed(key);
 		});
 		imageV.setOnKeyReleased((event) -> {
+			if (event.getCode() == KeyCode.BACK_SPACE)
+				emulation.setRewinding(false);
 			Joypad.Key key = DIRECTION.getOrDefault(event.getCode(), KEYS.get(event.getText().toUpperCase()));
 			if (key != null)
-				gb.joypad().keyReleased(key);
+				emulation.keyReleased(key);
 		});
 
-		// Timer
-		start = System.nanoTime();
+		// Simulation, sur son propre fil, et affichage des images qu'elle produit
+		emulation = new EmulationThread(gb);
+		emulation.start();
 		AnimationTimer timer = new AnimationTimer() {
 			@Override
 			public void handle(long now) {
-				long elapsed = (now - start);
-				gb.runUntil((long) (elapsed * GameBoy.CYCLES_PER_NANOSECOND));
-				image = ImageConverter.convert(gb.lcdController().currentImage());
-				imageV.setImage(image);
+				// l'image affichée n'est réécrite que si une nouvelle a été produite
+				int[] frame = emulation.takeFrame();
+				if (frame != null)
+					converter.update(frame);
 			}
 		};
 		timer.start();
 
 	}
+
+	/**
+	 * @param speed
+	 *            : vitesse de simulation
+	 * @return le texte décrivant la vitesse donnée, p.ex. « x4 »
+	 */
+	private static String speedLabel(double speed) {
+		return (speed == Double.POSITIVE_INFINITY) ? "max" : "x" + (int) speed;
+	}
+
+	@Override
+	public void stop() throws Exception {
+		if (emulation != null) {
+			// la cartouche n'est fermée qu'une fois le fil d'émulation terminé, afin
+			// que sa dernière sauvegarde comprenne toutes ses écritures
+			emulation.terminate();
+			emulation.join();
+			if (movieFile != null)
+				emulation.movie().writeTo(movieFile);
+		}
+		if (gb != null)
+			gb.close();
+	}
 }
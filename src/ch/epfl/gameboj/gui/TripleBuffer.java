@@ -0,0 +1,70 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+ * Échange d'images entre un unique producteur (le fil d'émulation) et un unique
+ * consommateur (le fil javafx), au moyen de trois tampons : le producteur écrit
+ * dans le sien pendant que le consommateur lit le sien, le troisième contenant
+ * la dernière image publiée. Aucun des deux fils n'attend jamais l'autre.
+ */
+public final class TripleBuffer {
+
+	// bit indiquant que le tampon du milieu contient une image pas encore lue
+	private static final int FRESH = 0b100;
+	private static final int INDEX_MASK = 0b11;
+
+	private final int[][] buffers;
+	private final AtomicInteger middle;
+	private int back;
+	private int front;
+
+	/**
+	 * Construit l'échangeur, dont les trois tampons ont la taille donnée
+	 *
+	 * @param size
+	 *            : taille des tampons, strictement positive
+	 * @throws IllegalArgumentException
+	 *             si la taille n'est pas strictement positive
+	 */
+	public TripleBuffer(int size) {
+		Preconditions.checkArgument(size > 0);
+		buffers = new int[][] { new int[size], new int[size], new int[size] };
+		back = 0;
+		middle = new AtomicInteger(1);
+		front = 2;
+	}
+
+	/**
+	 * @return le tampon dans lequel le producteur écrit la prochaine image ; à
+	 *         n'appeler que depuis le fil producteur
+	 */
+	public int[] backBuffer() {
+		return buffers[back];
+	}
+
+	/**
+	 * Publie l'image écrite dans le tampon du producteur, qui reçoit en échange le
+	 * tampon du milieu ; à n'appeler que depuis le fil producteur
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+	}
+
+	/**
+	 * Retourne la dernière image publiée si elle n'a pas encore été lue ; à
+	 * n'appeler que depuis le fil consommateur. Le tableau retourné reste valable
+	 * jusqu'au prochain appel.
+	 *
+	 * @return la dernière image publiée, ou null si aucune nouvelle image n'a été
+	 *         publiée depuis l'appel précédent
+	 */
+	public int[] takeFront() {
+		if ((middle.get() & FRESH) == 0)
+			return null;
+		front = middle.getAndSet(front) & INDEX_MASK;
+		return buffers[front];
+	}
+}